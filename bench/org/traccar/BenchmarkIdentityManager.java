@@ -0,0 +1,26 @@
+package org.traccar;
+
+import org.traccar.database.IdentityManager;
+import org.traccar.model.Device;
+
+/**
+ * Identity manager accepting any unique id, without database
+ */
+public class BenchmarkIdentityManager implements IdentityManager {
+  
+  @Override
+  public Device getDeviceById(long id) {
+    // no device status updates without database
+    return null;
+  }
+  
+  @Override
+  public Device getDeviceByUniqueId(String uniqueId) {
+    Device device = new Device();
+    device.setId(1);
+    device.setName("benchmark");
+    device.setUniqueId(uniqueId);
+    return device;
+  }
+  
+}
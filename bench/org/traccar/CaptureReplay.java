@@ -0,0 +1,141 @@
+package org.traccar;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.reflections.Reflections;
+import org.traccar.capture.CaptureReader;
+import org.traccar.capture.CaptureRecord;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+/**
+ * Feeds a binary capture file back through protocol decoders and prints
+ * decoded positions and decoder responses next to the captured responses.
+ *
+ * Usage: CaptureReplay file [protocol ...]
+ *
+ * Every captured channel gets its own decoder pipeline, stream handlers are
+ * used for all records.
+ */
+public final class CaptureReplay {
+  
+  private CaptureReplay() {
+  }
+  
+  private static Map<String, BaseProtocol> loadProtocols() throws Exception {
+    Map<String, BaseProtocol> protocols = new HashMap<>();
+    for (Class<? extends BaseProtocol> protocolClass : new Reflections(
+        "org.traccar.protocol").getSubTypesOf(BaseProtocol.class)) {
+      BaseProtocol protocol = protocolClass.newInstance();
+      protocols.put(protocol.getName(), protocol);
+    }
+    return protocols;
+  }
+  
+  private static String header(CaptureRecord record, String direction) {
+    return new SimpleDateFormat(Log.DATE_FORMAT).format(new Date(record
+        .getTime()))
+        + " ["
+        + Log.formatId(record.getChannelId())
+        + ": "
+        + record.getPort() + " " + direction + " " + record.getProtocol() + "]";
+  }
+  
+  private static String formatPosition(Position position) {
+    return "position time: " + position.getFixTime() + ", valid: "
+        + position.getValid() + ", lat: " + position.getLatitude()
+        + ", lon: " + position.getLongitude() + ", speed: "
+        + position.getSpeed() + ", course: " + position.getCourse() + ", "
+        + position.getAttributes();
+  }
+  
+  public static void main(String[] args) throws Exception {
+    
+    if (args.length < 1) {
+      System.out.println("Usage: CaptureReplay file [protocol ...]");
+      return;
+    }
+    
+    Context.init(new BenchmarkIdentityManager());
+    
+    Map<String, BaseProtocol> protocols = loadProtocols();
+    Set<String> selected = new HashSet<>(Arrays.asList(args).subList(1,
+        args.length));
+    Map<String, DecoderEmbedder<Object>> sessions = new HashMap<>();
+    
+    int frames = 0;
+    int positions = 0;
+    int errors = 0;
+    
+    try (CaptureReader reader = new CaptureReader(args[0])) {
+      CaptureRecord record;
+      while ((record = reader.read()) != null) {
+        
+        String protocolName = record.getProtocol();
+        if (!selected.isEmpty() && !selected.contains(protocolName)) {
+          continue;
+        }
+        
+        if (record.getDirection() == CaptureRecord.OUTBOUND) {
+          System.out.println(header(record, "> captured") + " "
+              + ChannelBuffers.hexDump(ChannelBuffers.wrappedBuffer(record
+                  .getData())));
+          continue;
+        }
+        
+        BaseProtocol protocol = protocols.get(protocolName);
+        if (protocol == null) {
+          continue;
+        }
+        
+        String key = protocolName + ":" + record.getChannelId();
+        DecoderEmbedder<Object> embedder = sessions.get(key);
+        if (embedder == null) {
+          embedder = new DecoderEmbedder<>(
+              DecoderBenchmark.createHandlers(protocol));
+          sessions.put(key, embedder);
+        }
+        
+        frames += 1;
+        System.out.println(header(record, "<") + " "
+            + ChannelBuffers.hexDump(ChannelBuffers.wrappedBuffer(record
+                .getData())));
+        
+        try {
+          embedder.offer(ChannelBuffers.wrappedBuffer(record.getData()));
+        } catch (RuntimeException error) {
+          errors += 1;
+          System.out.println("    error " + Log.exceptionStack(error));
+          continue;
+        }
+        
+        Object product;
+        while ((product = embedder.poll()) != null) {
+          if (product instanceof Position) {
+            positions += 1;
+            System.out.println("    " + formatPosition((Position) product));
+          } else if (product instanceof ChannelBuffer) {
+            System.out.println("    response "
+                + ChannelBuffers.hexDump((ChannelBuffer) product));
+          } else {
+            System.out.println("    " + product);
+          }
+        }
+      }
+    }
+    
+    System.out.println(String.format(
+        "%d frames, %d positions, %d errors, %d channels", frames, positions,
+        errors, sessions.size()));
+  }
+  
+}
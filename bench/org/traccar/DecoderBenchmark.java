@@ -0,0 +1,190 @@
+package org.traccar;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.traccar.model.Position;
+import org.traccar.protocol.Gl200Protocol;
+import org.traccar.protocol.Gt06Protocol;
+import org.traccar.protocol.H02Protocol;
+import org.traccar.protocol.MeitrackProtocol;
+import org.traccar.protocol.OsmAndProtocol;
+import org.traccar.protocol.TeltonikaProtocol;
+
+/**
+ * Replays recorded traffic through protocol specific handlers and reports
+ * throughput and heap allocation per decoder.
+ *
+ * Usage: DecoderBenchmark [protocol[=file] ...]
+ *
+ * Files are logger output with HEX dumps (logger.enable) or binary capture
+ * files (capture.enable), only inbound frames are replayed. Without arguments
+ * all known protocols are measured against their default recordings. Warmup
+ * and measurement time in seconds can be set with benchmark.warmup and
+ * benchmark.time system properties.
+ */
+public final class DecoderBenchmark {
+  
+  private static final Map<String, BaseProtocol> PROTOCOLS = new LinkedHashMap<>();
+  private static final Map<String, String> RECORDINGS = new LinkedHashMap<>();
+  
+  static {
+    register(new Gt06Protocol(), "doc/A304A868.log");
+    register(new TeltonikaProtocol(), "bench/traffic/teltonika.log");
+    register(new H02Protocol(), "bench/traffic/h02.log");
+    register(new Gl200Protocol(), "bench/traffic/gl200.log");
+    register(new MeitrackProtocol(), "bench/traffic/meitrack.log");
+    register(new OsmAndProtocol(), "bench/traffic/osmand.log");
+  }
+  
+  private static void register(BaseProtocol protocol, String recording) {
+    PROTOCOLS.put(protocol.getName(), protocol);
+    RECORDINGS.put(protocol.getName(), recording);
+  }
+  
+  private DecoderBenchmark() {
+  }
+  
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+        .getId());
+  }
+  
+  public static ChannelUpstreamHandler[] createHandlers(BaseProtocol protocol) {
+    
+    List<TrackerServer> serverList = new LinkedList<>();
+    protocol.initTrackerServers(serverList);
+    
+    // first server is the stream based one
+    ChannelPipeline pipeline = Channels.pipeline();
+    serverList.get(0).addSpecificHandlers(pipeline);
+    
+    List<ChannelUpstreamHandler> handlers = new ArrayList<>();
+    for (ChannelHandler handler : pipeline.toMap().values()) {
+      if (handler instanceof ChannelUpstreamHandler) {
+        handlers.add((ChannelUpstreamHandler) handler);
+      }
+    }
+    return handlers.toArray(new ChannelUpstreamHandler[handlers.size()]);
+  }
+  
+  private static class Session {
+    
+    private final DecoderEmbedder<Object> embedder;
+    private final List<ChannelBuffer> frames;
+    
+    public Session(BaseProtocol protocol, List<ChannelBuffer> frames) {
+      this.embedder = new DecoderEmbedder<>(createHandlers(protocol));
+      this.frames = frames;
+    }
+    
+    public int replay() {
+      int fixes = 0;
+      for (ChannelBuffer frame : frames) {
+        frame.readerIndex(0);
+        embedder.offer(frame);
+        Object product;
+        while ((product = embedder.poll()) != null) {
+          if (product instanceof Position) {
+            fixes += 1;
+          }
+        }
+      }
+      return fixes;
+    }
+    
+  }
+  
+  public static void measure(BaseProtocol protocol, RecordedTraffic traffic,
+      long warmup, long time) {
+    
+    List<Session> sessions = new ArrayList<>();
+    for (List<ChannelBuffer> frames : traffic.getSessions()) {
+      sessions.add(new Session(protocol, frames));
+    }
+    
+    long end = System.currentTimeMillis() + warmup;
+    while (System.currentTimeMillis() < end) {
+      for (Session session : sessions) {
+        session.replay();
+      }
+    }
+    
+    long passes = 0;
+    long fixes = 0;
+    long startBytes = allocatedBytes();
+    long startTime = System.nanoTime();
+    end = System.currentTimeMillis() + time;
+    while (System.currentTimeMillis() < end) {
+      for (Session session : sessions) {
+        fixes += session.replay();
+      }
+      passes += 1;
+    }
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    long allocated = allocatedBytes() - startBytes;
+    long frames = passes * traffic.getFrameCount();
+    
+    System.out.println(String.format(
+        "%-10s %12.0f frames/s %12.0f fixes/s %8d bytes/frame %8d bytes/fix"
+            + " %8.1f MB/s", protocol.getName(), frames / seconds, fixes
+            / seconds, frames > 0 ? allocated / frames : 0,
+        fixes > 0 ? allocated / fixes : 0, allocated / seconds / 1048576));
+  }
+  
+  public static void main(String[] args) throws Exception {
+    
+    Context.init(new BenchmarkIdentityManager());
+    
+    long warmup = Long.getLong("benchmark.warmup", 5) * 1000;
+    long time = Long.getLong("benchmark.time", 10) * 1000;
+    
+    List<String> targets = new ArrayList<>();
+    if (args.length > 0) {
+      for (String arg : args) {
+        targets.add(arg);
+      }
+    } else {
+      targets.addAll(PROTOCOLS.keySet());
+    }
+    
+    for (String target : targets) {
+      String name = target;
+      String file = RECORDINGS.get(target);
+      int separator = target.indexOf('=');
+      if (separator > 0) {
+        name = target.substring(0, separator);
+        file = target.substring(separator + 1);
+      }
+      
+      BaseProtocol protocol = PROTOCOLS.get(name);
+      if (protocol == null || file == null) {
+        System.out.println(String.format("%-10s unknown protocol or missing"
+            + " recording", name));
+        continue;
+      }
+      
+      RecordedTraffic traffic = new RecordedTraffic(file, name);
+      if (traffic.getFrameCount() == 0) {
+        System.out.println(String.format("%-10s no inbound frames in %s", name,
+            file));
+        continue;
+      }
+      
+      measure(protocol, traffic, warmup, time);
+    }
+    
+  }
+  
+}
@@ -0,0 +1,191 @@
+package org.traccar;
+
+import java.beans.Introspector;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.traccar.model.MiscFormatter;
+import org.traccar.model.Position;
+import org.traccar.web.JsonConverter;
+
+/**
+ * Compares JSON serialisation of positions and attribute maps.
+ *
+ * Usage: JsonBenchmark
+ *
+ * Measures the former per-call reflection over javax.json trees, the tree
+ * built with cached properties and the streaming writer. Warmup and
+ * measurement time in seconds can be set with benchmark.warmup and
+ * benchmark.time system properties.
+ */
+public final class JsonBenchmark {
+  
+  private static final int SAMPLES = 100;
+  
+  private JsonBenchmark() {
+  }
+  
+  private interface Serializer {
+    int serialize(Position position);
+  }
+  
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+        .getId());
+  }
+  
+  /**
+   * Serialisation as it was done before properties were cached
+   */
+  @SuppressWarnings("unchecked")
+  private static String legacyToJson(Object object) throws Exception {
+    JsonObjectBuilder json = Json.createObjectBuilder();
+    for (Method method : object.getClass().getMethods()) {
+      if (method.getName().startsWith("get")
+          && method.getParameterTypes().length == 0) {
+        String name = Introspector.decapitalize(method.getName().substring(3));
+        if (method.getReturnType().equals(boolean.class)) {
+          json.add(name, (Boolean) method.invoke(object));
+        } else if (method.getReturnType().equals(long.class)) {
+          json.add(name, (Long) method.invoke(object));
+        } else if (method.getReturnType().equals(double.class)) {
+          json.add(name, (Double) method.invoke(object));
+        } else if (method.getReturnType().equals(String.class)) {
+          String value = (String) method.invoke(object);
+          if (value != null) {
+            json.add(name, value);
+          }
+        } else if (method.getReturnType().equals(Date.class)) {
+          Date value = (Date) method.invoke(object);
+          if (value != null) {
+            json.add(name, ISODateTimeFormat.dateTime().print(
+                new DateTime(value)));
+          }
+        } else if (method.getReturnType().equals(Map.class)) {
+          json.add(name, MiscFormatter.toJson((Map) method.invoke(object)));
+        }
+      }
+    }
+    return json.build().toString();
+  }
+  
+  private static List<Position> createPositions() {
+    List<Position> positions = new ArrayList<>();
+    for (int i = 0; i < SAMPLES; i++) {
+      Position position = new Position();
+      position.setId(1000000 + i);
+      position.setDeviceId(i % 20);
+      position.setProtocol("gt06");
+      position.setServerTime(new Date());
+      position.setTime(new Date(System.currentTimeMillis() - i * 1000));
+      position.setValid(true);
+      position.setLatitude(-6.2 + i * 0.0001);
+      position.setLongitude(106.8 + i * 0.0001);
+      position.setAltitude(12.5);
+      position.setSpeed(i % 60);
+      position.setCourse(i % 360);
+      position.setAddress("Jl. Jend. Sudirman No. " + i + ", Jakarta");
+      position.set(Position.KEY_SATELLITES, 9);
+      position.set(Position.KEY_IGNITION, true);
+      position.set(Position.KEY_POWER, 12.8);
+      position.set(Position.KEY_BATTERY, 4.1);
+      position.set(Position.KEY_ODOMETER, 1234567L + i);
+      position.set(Position.KEY_STATUS, 0x4F);
+      position.set(Position.KEY_GSM, 4);
+      position.set(Position.KEY_ALARM, "sos");
+      position.set(Position.KEY_DISTANCE, 15.7);
+      position.set(Position.KEY_RFID, "00AB12CD");
+      positions.add(position);
+    }
+    return positions;
+  }
+  
+  private static void measure(String name, List<Position> positions,
+      Serializer serializer, long warmup, long time) {
+    
+    long end = System.currentTimeMillis() + warmup;
+    while (System.currentTimeMillis() < end) {
+      for (Position position : positions) {
+        serializer.serialize(position);
+      }
+    }
+    
+    long count = 0;
+    long length = 0;
+    long startBytes = allocatedBytes();
+    long startTime = System.nanoTime();
+    end = System.currentTimeMillis() + time;
+    while (System.currentTimeMillis() < end) {
+      for (Position position : positions) {
+        length += serializer.serialize(position);
+      }
+      count += positions.size();
+    }
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    long allocated = allocatedBytes() - startBytes;
+    
+    System.out.println(String.format(
+        "%-18s %12.0f ops/s %8d bytes/op %8d chars/op", name, count
+            / seconds, allocated / count, length / count));
+  }
+  
+  public static void main(String[] args) throws Exception {
+    
+    long warmup = Long.getLong("benchmark.warmup", 5) * 1000;
+    long time = Long.getLong("benchmark.time", 10) * 1000;
+    
+    List<Position> positions = createPositions();
+    
+    measure("position legacy", positions, new Serializer() {
+      @Override
+      public int serialize(Position position) {
+        try {
+          return legacyToJson(position).length();
+        } catch (Exception error) {
+          throw new IllegalStateException(error);
+        }
+      }
+    }, warmup, time);
+    
+    measure("position tree", positions, new Serializer() {
+      @Override
+      public int serialize(Position position) {
+        return JsonConverter.objectToJson(position).toString().length();
+      }
+    }, warmup, time);
+    
+    measure("position stream", positions, new Serializer() {
+      @Override
+      public int serialize(Position position) {
+        return JsonConverter.toJsonString(position).length();
+      }
+    }, warmup, time);
+    
+    measure("attributes tree", positions, new Serializer() {
+      @Override
+      public int serialize(Position position) {
+        return MiscFormatter.toJson(position.getAttributes()).toString()
+            .length();
+      }
+    }, warmup, time);
+    
+    measure("attributes stream", positions, new Serializer() {
+      @Override
+      public int serialize(Position position) {
+        return MiscFormatter.toJsonString(position.getAttributes()).length();
+      }
+    }, warmup, time);
+    
+  }
+  
+}
@@ -0,0 +1,315 @@
+package org.traccar;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.handler.codec.frame.FixedLengthFrameDecoder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.database.ConnectionManager;
+import org.traccar.database.DataManager;
+import org.traccar.metrics.Histogram;
+import org.traccar.model.Device;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+import org.traccar.model.User;
+
+/**
+ * Opens many concurrent simulated tracker sessions against a server and
+ * reports acknowledgement round trip and end-to-end latency.
+ *
+ * Without load.host the server is started in the same process using
+ * load.config (default bench/load.xml, embedded H2 database). Devices are
+ * created for every session and end-to-end latency is measured from socket
+ * write until the position is committed by DefaultDataHandler and published
+ * through ConnectionManager. Against a remote server only acknowledgement
+ * latency is available.
+ *
+ * Settings (system properties): load.protocol (gt06, teltonika, h02),
+ * load.transport (tcp, udp), load.host, load.port, load.sessions,
+ * load.interval, load.heartbeat, load.rampup, load.duration (seconds) and
+ * load.imei (first device identifier).
+ */
+public class LoadGenerator implements ConnectionManager.UpdateListener {
+  
+  private static final Map<String, Integer> PORTS = new HashMap<>();
+  
+  static {
+    PORTS.put("gt06", 5023);
+    PORTS.put("teltonika", 5027);
+    PORTS.put("h02", 5013);
+  }
+  
+  private final String protocol;
+  private final boolean connectionless;
+  private final long interval;
+  private final long heartbeat;
+  
+  private final Timer timer = new HashedWheelTimer();
+  private final List<SimulatedTracker> trackers = new ArrayList<>();
+  
+  private final Histogram ackLatency = new Histogram();
+  private final Histogram commitLatency = new Histogram();
+  private final Map<String, Long> pending = new ConcurrentHashMap<>();
+  
+  private final AtomicLong connected = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong messages = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong fixes = new AtomicLong();
+  private final AtomicLong unmatched = new AtomicLong();
+  
+  private ChannelFactory channelFactory;
+  
+  public LoadGenerator(String protocol, boolean connectionless, long interval,
+      long heartbeat) {
+    this.protocol = protocol;
+    this.connectionless = connectionless;
+    this.interval = interval;
+    this.heartbeat = heartbeat;
+  }
+  
+  public long getInterval() {
+    return interval;
+  }
+  
+  public long getHeartbeat() {
+    return heartbeat;
+  }
+  
+  public Timer getTimer() {
+    return timer;
+  }
+  
+  public Histogram getAckLatency() {
+    return ackLatency;
+  }
+  
+  public void onSessionConnected() {
+    connected.incrementAndGet();
+  }
+  
+  public void onSessionClosed() {
+    closed.incrementAndGet();
+  }
+  
+  public void onError(String uniqueId, Throwable cause) {
+    if (errors.incrementAndGet() <= 10) {
+      System.out.println(uniqueId + " " + cause);
+    }
+  }
+  
+  public void onMessageSent(int length) {
+    messages.incrementAndGet();
+    bytes.addAndGet(length);
+  }
+  
+  public void onFixSent(String uniqueId, long fixTime) {
+    fixes.incrementAndGet();
+    pending.put(uniqueId + ":" + fixTime, System.nanoTime());
+  }
+  
+  @Override
+  public void onUpdateDevice(Device device) {
+  }
+  
+  @Override
+  public void onUpdatePosition(Position position) {
+    long now = System.nanoTime();
+    Device device = Context.getIdentityManager().getDeviceById(
+        position.getDeviceId());
+    Long sent = null;
+    if (device != null) {
+      sent = pending.remove(device.getUniqueId() + ":"
+          + position.getFixTime().getTime() / 1000);
+    }
+    if (sent != null) {
+      commitLatency.update((now - sent) / 1000);
+    } else {
+      unmatched.incrementAndGet();
+    }
+  }
+  
+  @Override
+  public void onUpdateEvent(Event event, Position position) {
+  }
+  
+  private SimulatedTracker createTracker(String uniqueId) {
+    switch (protocol) {
+    case "teltonika":
+      return new SimulatedTracker.Teltonika(this, uniqueId, connectionless);
+    case "h02":
+      return new SimulatedTracker.H02(this, uniqueId);
+    default:
+      return new SimulatedTracker.Gt06(this, uniqueId);
+    }
+  }
+  
+  private void connect(SimulatedTracker tracker, InetSocketAddress address) {
+    ChannelPipeline pipeline = Channels.pipeline();
+    if (protocol.equals("gt06")) {
+      pipeline.addLast("frameDecoder", new FixedLengthFrameDecoder(10));
+    }
+    pipeline.addLast("tracker", tracker);
+    Channel channel = channelFactory.newChannel(pipeline);
+    if (connectionless) {
+      channel.bind(new InetSocketAddress(0));
+    }
+    channel.connect(address);
+  }
+  
+  public void start(final InetSocketAddress address, List<String> uniqueIds,
+      long rampup) {
+    
+    if (connectionless) {
+      channelFactory = new NioDatagramChannelFactory(
+          Executors.newCachedThreadPool());
+    } else {
+      channelFactory = new NioClientSocketChannelFactory(
+          Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+    }
+    
+    for (int i = 0; i < uniqueIds.size(); i++) {
+      final SimulatedTracker tracker = createTracker(uniqueIds.get(i));
+      trackers.add(tracker);
+      timer.newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) throws Exception {
+          connect(tracker, address);
+        }
+      }, rampup * i / uniqueIds.size(), TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  public void stop() {
+    timer.stop();
+    for (SimulatedTracker tracker : trackers) {
+      Channel channel = tracker.getChannel();
+      if (channel != null) {
+        channel.close().awaitUninterruptibly();
+      }
+    }
+    channelFactory.releaseExternalResources();
+  }
+  
+  public void report(double seconds, boolean last) {
+    System.out.println(String.format(
+        "%6.0f s sessions %d/%d errors %d messages %d (%.0f/s, %.1f KB/s)"
+            + " fixes %d (%.0f/s)", seconds, connected.get() - closed.get(),
+        trackers.size(), errors.get(), messages.get(), messages.get()
+            / seconds, bytes.get() / 1024.0 / seconds, fixes.get(),
+        fixes.get() / seconds));
+    if (!protocol.equals("h02") && !connectionless) {
+      System.out.println("         ack    " + ackLatency.summary());
+    }
+    if (commitLatency.getCount() > 0 || unmatched.get() > 0 || last) {
+      System.out.println("         commit " + commitLatency.summary()
+          + " unmatched " + unmatched.get() + " pending " + pending.size());
+    }
+  }
+  
+  public static void main(String[] args) throws Exception {
+    Locale.setDefault(Locale.ENGLISH);
+    
+    String protocol = System.getProperty("load.protocol", "gt06");
+    if (!PORTS.containsKey(protocol)) {
+      System.out.println("Unsupported protocol " + protocol);
+      return;
+    }
+    boolean connectionless = System.getProperty("load.transport", "tcp")
+        .equals("udp");
+    if (connectionless && !protocol.equals("teltonika")) {
+      System.out.println("Only teltonika is served over udp");
+      return;
+    }
+    
+    int sessions = Integer.getInteger("load.sessions", 100);
+    long interval = Long.getLong("load.interval", 10) * 1000;
+    long heartbeat = Long.getLong("load.heartbeat", 60) * 1000;
+    long rampup = Long.getLong("load.rampup", 10) * 1000;
+    long duration = Long.getLong("load.duration", 60) * 1000;
+    long imei = Long.parseLong(System.getProperty("load.imei",
+        "860000000000000"));
+    
+    List<String> uniqueIds = new ArrayList<>(sessions);
+    for (int i = 0; i < sessions; i++) {
+      uniqueIds.add(String.valueOf(imei + i));
+    }
+    
+    LoadGenerator generator = new LoadGenerator(protocol, connectionless,
+        interval, heartbeat);
+    
+    String host = System.getProperty("load.host");
+    int port = PORTS.get(protocol);
+    boolean embedded = host == null;
+    if (embedded) {
+      host = "localhost";
+      
+      Context.init(new String[] { System.getProperty("load.config",
+          "bench/load.xml") });
+      port = Context.getConfig().getInteger(protocol + ".port", port);
+      
+      DataManager dataManager = Context.getDataManager();
+      User user = new User();
+      user.setName("load");
+      user.setEmail("load@localhost");
+      user.setPassword("load");
+      user.setAdmin(true);
+      dataManager.addUser(user);
+      for (String uniqueId : uniqueIds) {
+        Device device = new Device();
+        device.setName(uniqueId);
+        device.setUniqueId(uniqueId);
+        dataManager.addDevice(device);
+        dataManager.linkDevice(user.getId(), device.getId());
+      }
+      Context.getPermissionsManager().refresh();
+      Context.getConnectionManager().addListener(user.getId(), generator);
+      
+      Context.getServerManager().start();
+    }
+    port = Integer.getInteger("load.port", port);
+    
+    System.out.println(String.format("%s %s %s:%d sessions %d interval %d s",
+        protocol, connectionless ? "udp" : "tcp", host, port, sessions,
+        interval / 1000));
+    
+    long start = System.currentTimeMillis();
+    generator.start(new InetSocketAddress(host, port), uniqueIds, rampup);
+    
+    long end = start + rampup + duration;
+    while (System.currentTimeMillis() < end) {
+      Thread.sleep(Math.max(0,
+          Math.min(10000, end - System.currentTimeMillis())));
+      generator.report((System.currentTimeMillis() - start) / 1000.0, false);
+    }
+    
+    // give in-flight messages time to be committed
+    Thread.sleep(Math.min(interval, 5000));
+    generator.report((System.currentTimeMillis() - start) / 1000.0, true);
+    generator.stop();
+    
+    if (embedded) {
+      Context.getServerManager().stop();
+    }
+    System.exit(0);
+  }
+  
+}
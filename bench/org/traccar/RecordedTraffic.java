@@ -0,0 +1,108 @@
+package org.traccar;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.traccar.capture.CaptureReader;
+import org.traccar.capture.CaptureRecord;
+import org.traccar.capture.CaptureWriter;
+
+/**
+ * Inbound frames recorded by the logger handler or the capture handler,
+ * grouped by channel
+ */
+public class RecordedTraffic {
+  
+  // [A304A868: 5023 < 114.127.245.7] HEX: 78780d01...
+  private static final Pattern PATTERN = Pattern
+      .compile("\\[(\\p{XDigit}{8}): \\d+ < [^\\]]*\\] HEX: (\\p{XDigit}+)");
+  
+  private final Map<String, List<ChannelBuffer>> sessions = new LinkedHashMap<>();
+  
+  private int frameCount;
+  
+  public RecordedTraffic(String file) throws IOException {
+    this(file, null);
+  }
+  
+  /**
+   * @param protocol only frames of this protocol, applies to capture files
+   */
+  public RecordedTraffic(String file, String protocol) throws IOException {
+    if (isCapture(file)) {
+      readCapture(file, protocol);
+    } else {
+      readLog(file);
+    }
+  }
+  
+  private static boolean isCapture(String file) throws IOException {
+    byte[] magic = new byte[CaptureWriter.MAGIC.length];
+    try (InputStream input = new FileInputStream(file)) {
+      return input.read(magic) == magic.length
+          && Arrays.equals(magic, CaptureWriter.MAGIC);
+    }
+  }
+  
+  private void addFrame(String channelId, ChannelBuffer frame) {
+    List<ChannelBuffer> frames = sessions.get(channelId);
+    if (frames == null) {
+      frames = new ArrayList<>();
+      sessions.put(channelId, frames);
+    }
+    frames.add(frame);
+    frameCount += 1;
+  }
+  
+  private void readCapture(String file, String protocol) throws IOException {
+    try (CaptureReader reader = new CaptureReader(file)) {
+      CaptureRecord record;
+      while ((record = reader.read()) != null) {
+        if (record.getDirection() == CaptureRecord.INBOUND
+            && (protocol == null || protocol.equals(record.getProtocol()))) {
+          addFrame(record.getProtocol() + ":" + record.getChannelId(),
+              ChannelBuffers.wrappedBuffer(record.getData()));
+        }
+      }
+    }
+  }
+  
+  private void readLog(String file) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = PATTERN.matcher(line);
+        if (matcher.find()) {
+          addFrame(matcher.group(1), ChannelBuffers.wrappedBuffer(
+              DatatypeConverter.parseHexBinary(matcher.group(2))));
+        }
+      }
+    }
+  }
+  
+  public Collection<List<ChannelBuffer>> getSessions() {
+    return sessions.values();
+  }
+  
+  public int getFrameCount() {
+    return frameCount;
+  }
+  
+}
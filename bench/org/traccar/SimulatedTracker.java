@@ -0,0 +1,386 @@
+package org.traccar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.helper.Checksum;
+
+/**
+ * Simulated device session, sends login, periodic fixes and heartbeats over
+ * a single channel and reports traffic to the load generator.
+ */
+public abstract class SimulatedTracker extends SimpleChannelUpstreamHandler {
+  
+  private final LoadGenerator generator;
+  private final String uniqueId;
+  private final Random random;
+  
+  private volatile Channel channel;
+  private volatile Timeout fixTimeout;
+  private volatile Timeout heartbeatTimeout;
+  
+  private long lastFixTime;
+  private double latitude;
+  private double longitude;
+  private int course;
+  
+  protected SimulatedTracker(LoadGenerator generator, String uniqueId) {
+    this.generator = generator;
+    this.uniqueId = uniqueId;
+    random = new Random(uniqueId.hashCode());
+    latitude = -6.3 + random.nextDouble() * 0.3;
+    longitude = 106.7 + random.nextDouble() * 0.3;
+    course = random.nextInt(360);
+  }
+  
+  public String getUniqueId() {
+    return uniqueId;
+  }
+  
+  public Channel getChannel() {
+    return channel;
+  }
+  
+  protected LoadGenerator getGenerator() {
+    return generator;
+  }
+  
+  protected ChannelBuffer encodeLogin() {
+    return null;
+  }
+  
+  protected abstract ChannelBuffer encodeFix(long time, double latitude,
+      double longitude, int speed, int course);
+  
+  protected ChannelBuffer encodeHeartbeat() {
+    return null;
+  }
+  
+  protected void decodeResponse(ChannelBuffer buf) {
+  }
+  
+  protected void write(ChannelBuffer buf) {
+    Channel current = channel;
+    if (current != null && current.isConnected()) {
+      generator.onMessageSent(buf.readableBytes());
+      current.write(buf);
+    }
+  }
+  
+  private void sendFix() {
+    
+    // fix time must grow for every message to be reported as latest position
+    lastFixTime = Math.max(System.currentTimeMillis() / 1000, lastFixTime + 1);
+    
+    course = (course + random.nextInt(31) - 15 + 360) % 360;
+    int speed = random.nextInt(80);
+    double distance = speed / 3600.0 / 111.0 * generator.getInterval() / 1000;
+    latitude += distance * Math.cos(Math.toRadians(course));
+    longitude += distance * Math.sin(Math.toRadians(course));
+    
+    ChannelBuffer buf = encodeFix(lastFixTime * 1000, latitude, longitude,
+        speed, course);
+    generator.onFixSent(uniqueId, lastFixTime);
+    write(buf);
+  }
+  
+  private Timeout schedule(Timer timer, final long delay, final boolean fix) {
+    return timer.newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) throws Exception {
+        if (channel == null || !channel.isConnected()) {
+          return;
+        }
+        if (fix) {
+          sendFix();
+          fixTimeout = schedule(timeout.getTimer(), generator.getInterval(),
+              true);
+        } else {
+          ChannelBuffer buf = encodeHeartbeat();
+          if (buf != null) {
+            write(buf);
+          }
+          heartbeatTimeout = schedule(timeout.getTimer(),
+              generator.getHeartbeat(), false);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+  
+  @Override
+  public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e)
+      throws Exception {
+    channel = e.getChannel();
+    generator.onSessionConnected();
+    
+    ChannelBuffer login = encodeLogin();
+    if (login != null) {
+      write(login);
+    }
+    
+    // spread first fixes over the whole interval
+    Timer timer = generator.getTimer();
+    fixTimeout = schedule(timer,
+        (long) (random.nextDouble() * generator.getInterval()), true);
+    if (generator.getHeartbeat() > 0) {
+      heartbeatTimeout = schedule(timer, generator.getHeartbeat(), false);
+    }
+  }
+  
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+      throws Exception {
+    if (fixTimeout != null) {
+      fixTimeout.cancel();
+    }
+    if (heartbeatTimeout != null) {
+      heartbeatTimeout.cancel();
+    }
+    if (channel != null) {
+      channel = null;
+      generator.onSessionClosed();
+    }
+  }
+  
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+      throws Exception {
+    decodeResponse((ChannelBuffer) e.getMessage());
+  }
+  
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
+      throws Exception {
+    generator.onError(uniqueId, e.getCause());
+    e.getChannel().close();
+  }
+  
+  /** GT06 login, GPS_LBS_1 fixes and status heartbeats */
+  public static class Gt06 extends SimulatedTracker {
+    
+    private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
+    private final Calendar calendar = Calendar.getInstance(TimeZone
+        .getTimeZone("UTC"));
+    private int index;
+    
+    public Gt06(LoadGenerator generator, String uniqueId) {
+      super(generator, uniqueId);
+    }
+    
+    private ChannelBuffer encode(int type, ChannelBuffer content) {
+      int serial = index;
+      index = (index + 1) & 0xffff;
+      
+      ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+      buf.writeByte(0x78);
+      buf.writeByte(0x78);
+      buf.writeByte(1 + content.readableBytes() + 2 + 2); // length
+      buf.writeByte(type);
+      buf.writeBytes(content);
+      buf.writeShort(serial);
+      buf.writeShort(Checksum.crc16(Checksum.CRC16_X25,
+          buf.toByteBuffer(2, buf.writerIndex() - 2)));
+      buf.writeByte('\r');
+      buf.writeByte('\n');
+      
+      pending.put(serial, System.nanoTime());
+      return buf;
+    }
+    
+    @Override
+    protected ChannelBuffer encodeLogin() {
+      return encode(0x01, ChannelBuffers.wrappedBuffer(DatatypeConverter
+          .parseHexBinary("0" + getUniqueId())));
+    }
+    
+    @Override
+    protected ChannelBuffer encodeFix(long time, double latitude,
+        double longitude, int speed, int course) {
+      
+      ChannelBuffer content = ChannelBuffers.buffer(26);
+      
+      calendar.setTimeInMillis(time);
+      content.writeByte(calendar.get(Calendar.YEAR) - 2000);
+      content.writeByte(calendar.get(Calendar.MONTH) + 1);
+      content.writeByte(calendar.get(Calendar.DAY_OF_MONTH));
+      content.writeByte(calendar.get(Calendar.HOUR_OF_DAY));
+      content.writeByte(calendar.get(Calendar.MINUTE));
+      content.writeByte(calendar.get(Calendar.SECOND));
+      
+      content.writeByte(0xC0 | 9); // gps length and satellites
+      content.writeInt((int) Math.round(Math.abs(latitude) * 1800000));
+      content.writeInt((int) Math.round(Math.abs(longitude) * 1800000));
+      content.writeByte(speed);
+      
+      int flags = course | 1 << 12;
+      if (latitude >= 0) {
+        flags |= 1 << 10;
+      }
+      if (longitude < 0) {
+        flags |= 1 << 11;
+      }
+      content.writeShort(flags);
+      
+      content.writeShort(510); // mcc
+      content.writeByte(10); // mnc
+      content.writeShort(0x1D6E); // lac
+      content.writeMedium(0x0A4B); // cid
+      
+      return encode(0x12, content);
+    }
+    
+    @Override
+    protected ChannelBuffer encodeHeartbeat() {
+      ChannelBuffer content = ChannelBuffers.buffer(5);
+      content.writeByte(0x06); // terminal info
+      content.writeByte(0x04); // voltage level
+      content.writeByte(0x04); // gsm signal
+      content.writeShort(0x0002); // language
+      return encode(0x13, content);
+    }
+    
+    @Override
+    protected void decodeResponse(ChannelBuffer buf) {
+      buf.skipBytes(4); // header, length and type
+      Long sent = pending.remove(buf.readUnsignedShort());
+      if (sent != null) {
+        getGenerator().getAckLatency().update(
+            (System.nanoTime() - sent) / 1000);
+      }
+    }
+    
+  }
+  
+  /** Teltonika identification and codec 8 records */
+  public static class Teltonika extends SimulatedTracker {
+    
+    private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+    private final boolean connectionless;
+    private boolean identified;
+    
+    public Teltonika(LoadGenerator generator, String uniqueId,
+        boolean connectionless) {
+      super(generator, uniqueId);
+      this.connectionless = connectionless;
+    }
+    
+    @Override
+    protected ChannelBuffer encodeLogin() {
+      byte[] imei = getUniqueId().getBytes(StandardCharsets.US_ASCII);
+      ChannelBuffer buf = ChannelBuffers.buffer(2 + imei.length);
+      buf.writeShort(imei.length);
+      buf.writeBytes(imei);
+      return buf;
+    }
+    
+    @Override
+    protected ChannelBuffer encodeFix(long time, double latitude,
+        double longitude, int speed, int course) {
+      
+      // datagram server shares decoder state, identify before every packet
+      if (connectionless) {
+        write(encodeLogin());
+      }
+      
+      ChannelBuffer record = ChannelBuffers.buffer(30);
+      record.writeLong(time);
+      record.writeByte(0); // priority
+      record.writeInt((int) Math.round(longitude * 10000000));
+      record.writeInt((int) Math.round(latitude * 10000000));
+      record.writeShort(10); // altitude
+      record.writeShort(course);
+      record.writeByte(9); // satellites
+      record.writeShort(speed);
+      record.writeByte(0); // event io id
+      record.writeByte(0); // total io count
+      record.writeByte(0); // 1 byte io count
+      record.writeByte(0); // 2 byte io count
+      record.writeByte(0); // 4 byte io count
+      record.writeByte(0); // 8 byte io count
+      
+      ChannelBuffer buf = ChannelBuffers.buffer(record.readableBytes() + 15);
+      buf.writeInt(0); // marker
+      buf.writeInt(record.readableBytes() + 3);
+      buf.writeByte(0x08); // codec
+      buf.writeByte(1); // count
+      buf.writeBytes(record);
+      buf.writeByte(1); // count
+      buf.writeInt(0); // crc, not checked by decoder
+      
+      if (!connectionless) {
+        pending.offer(System.nanoTime());
+      }
+      return buf;
+    }
+    
+    @Override
+    protected void decodeResponse(ChannelBuffer buf) {
+      if (!identified && buf.readableBytes() % 4 == 1) {
+        buf.readUnsignedByte();
+        identified = true;
+      }
+      while (buf.readableBytes() >= 4) {
+        buf.readInt(); // record count
+        Long sent = pending.poll();
+        if (sent != null) {
+          getGenerator().getAckLatency().update(
+              (System.nanoTime() - sent) / 1000);
+        }
+      }
+    }
+    
+  }
+  
+  /** H02 text messages, protocol has no acknowledgements */
+  public static class H02 extends SimulatedTracker {
+    
+    private final Calendar calendar = Calendar.getInstance(TimeZone
+        .getTimeZone("UTC"));
+    
+    public H02(LoadGenerator generator, String uniqueId) {
+      super(generator, uniqueId);
+    }
+    
+    private static String formatCoordinate(double value, int digits) {
+      value = Math.abs(value);
+      int degrees = (int) value;
+      return String.format(Locale.US, "%0" + digits + "d%07.4f", degrees,
+          (value - degrees) * 60);
+    }
+    
+    @Override
+    protected ChannelBuffer encodeFix(long time, double latitude,
+        double longitude, int speed, int course) {
+      calendar.setTimeInMillis(time);
+      String sentence = String.format(Locale.US,
+          "*HQ,%s,V1,%tH%<tM%<tS,A,%s,%s,%s,%s,%.2f,%d,%td%<tm%<ty,ffffffff#",
+          getUniqueId(), calendar, formatCoordinate(latitude, 2),
+          latitude < 0 ? "S" : "N", formatCoordinate(longitude, 3),
+          longitude < 0 ? "W" : "E", speed / 1.852, course, calendar);
+      return ChannelBuffers.copiedBuffer(sentence, StandardCharsets.US_ASCII);
+    }
+    
+  }
+  
+}
@@ -18,16 +18,23 @@ package org.traccar;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import org.traccar.metrics.Histogram;
 import org.traccar.model.Position;
 
 public abstract class BaseDataHandler extends OneToOneDecoder {
   
+  private final Histogram latency = Context.getMetricsRegistry().histogram(
+      "handler." + getClass().getSimpleName());
+  
   @Override
   protected final Object decode(ChannelHandlerContext ctx, Channel channel,
       Object msg) throws Exception {
     
     if (msg instanceof Position) {
-      return handlePosition((Position) msg);
+      long start = System.nanoTime();
+      Position position = handlePosition((Position) msg);
+      latency.time(start);
+      return position;
     }
     
     return msg;
@@ -17,6 +17,7 @@ package org.traccar;
 
 import java.util.Collection;
 
+import org.traccar.broker.BrokerRecordEncoder;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
 
@@ -29,6 +30,12 @@ public abstract class BaseEventHandler extends BaseDataHandler {
     if (events != null && Context.getNotificationManager() != null) {
       Context.getNotificationManager().updateEvents(events, position);
     }
+    if (events != null && Context.getBrokerProducer() != null) {
+      for (Event event : events) {
+        Context.getBrokerProducer().publish(event.getDeviceId(),
+            BrokerRecordEncoder.encode(event));
+      }
+    }
     return position;
   }
   
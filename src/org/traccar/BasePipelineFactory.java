@@ -29,13 +29,19 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.DownstreamMessageEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.logging.LoggingHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.traccar.broker.BrokerDataHandler;
+import org.traccar.capture.CaptureHandler;
+import org.traccar.forward.PositionForwarder;
+import org.traccar.forward.ProtocolForwarder;
 import org.traccar.events.CommandResultEventHandler;
 import org.traccar.events.GeofenceEventHandler;
 import org.traccar.events.MotionEventHandler;
 import org.traccar.events.OverspeedEventHandler;
 import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
 
 public abstract class BasePipelineFactory implements ChannelPipelineFactory {
   
@@ -48,11 +54,25 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
   private LocationProviderHandler locationProviderHandler;
   private HemisphereHandler hemisphereHandler;
   
+  private final OpenChannelHandler openChannelHandler;
+  private final TrafficMetricsHandler trafficMetricsHandler;
+  private StandardLoggingHandler standardLoggingHandler;
+  private CaptureHandler captureHandler;
+  private ProtocolForwarder.Settings forwarderSettings;
+  private final RemoteAddressHandler remoteAddressHandler;
+  private DefaultDataHandler defaultDataHandler;
+  private final WebDataHandler webDataHandler;
+  private final SplunkDataHandler splunkDataHandler;
+  private final PositionForwarder positionForwarder;
+  private BrokerDataHandler brokerDataHandler;
+  private final MainEventHandler mainEventHandler;
+  
   private CommandResultEventHandler commandResultEventHandler;
   private OverspeedEventHandler overspeedEventHandler;
   private MotionEventHandler motionEventHandler;
   private GeofenceEventHandler geofenceEventHandler;
   
+  @ChannelHandler.Sharable
   private static final class OpenChannelHandler extends SimpleChannelHandler {
     
     private final TrackerServer server;
@@ -67,15 +87,44 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
     }
   }
   
+  @ChannelHandler.Sharable
+  private static final class TrafficMetricsHandler extends
+      SimpleChannelUpstreamHandler {
+    
+    private final Counter bytes;
+    
+    private TrafficMetricsHandler(String protocol) {
+      bytes = Context.getMetricsRegistry().counter(
+          "protocol." + protocol + ".bytes");
+    }
+    
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+        throws Exception {
+      if (e.getMessage() instanceof ChannelBuffer) {
+        bytes.inc(((ChannelBuffer) e.getMessage()).readableBytes());
+      }
+      ctx.sendUpstream(e);
+    }
+  }
+  
+  @ChannelHandler.Sharable
   private static class StandardLoggingHandler extends LoggingHandler {
     
+    // raw bytes go to capture file when enabled
+    private final boolean hexDump;
+    
+    private StandardLoggingHandler(boolean hexDump) {
+      this.hexDump = hexDump;
+    }
+    
     @Override
     public void log(ChannelEvent e) {
-      if (e instanceof MessageEvent) {
+      if (e instanceof MessageEvent && Log.isDebugEnabled()) {
         MessageEvent event = (MessageEvent) e;
         StringBuilder msg = new StringBuilder();
         
-        msg.append("[").append(String.format("%08X", e.getChannel().getId()))
+        msg.append("[").append(Log.formatId(e.getChannel().getId()))
             .append(": ");
         msg.append(((InetSocketAddress) e.getChannel().getLocalAddress())
             .getPort());
@@ -93,7 +142,7 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
         }
         msg.append("]");
         
-        if (event.getMessage() instanceof ChannelBuffer) {
+        if (hexDump && event.getMessage() instanceof ChannelBuffer) {
           msg.append(" HEX: ");
           msg.append(ChannelBuffers.hexDump((ChannelBuffer) event.getMessage()));
         }
@@ -112,6 +161,25 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
       timeout = Context.getConfig().getInteger(protocol + ".resetDelay", 0); // temporary
     }
     
+    openChannelHandler = new OpenChannelHandler(server);
+    trafficMetricsHandler = new TrafficMetricsHandler(protocol);
+    
+    if (Context.isLoggerEnabled()) {
+      standardLoggingHandler = new StandardLoggingHandler(
+          Context.getCaptureWriter() == null);
+    }
+    
+    if (Context.getCaptureWriter() != null) {
+      captureHandler = new CaptureHandler(Context.getCaptureWriter(),
+          protocol, Context.getConfig().getString("capture.ports"), Context
+              .getConfig().getString("capture.devices"));
+    }
+    
+    if (ProtocolForwarder.isEnabled(protocol)) {
+      forwarderSettings = new ProtocolForwarder.Settings(protocol,
+          server.isConnectionless());
+    }
+    
     if (Context.getConfig().getBoolean("filter.enable")) {
       filterHandler = new FilterHandler();
     }
@@ -151,6 +219,24 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
     if (Context.getConfig().getBoolean("event.geofenceHandler")) {
       geofenceEventHandler = new GeofenceEventHandler();
     }
+    
+    remoteAddressHandler = new RemoteAddressHandler();
+    
+    if (Context.getDataManager() != null) {
+      defaultDataHandler = new DefaultDataHandler();
+    }
+    
+    webDataHandler = Context.getWebDataHandler();
+    
+    splunkDataHandler = Context.getSplunkDataHandler();
+    
+    positionForwarder = Context.getPositionForwarder();
+    
+    if (Context.getBrokerProducer() != null) {
+      brokerDataHandler = new BrokerDataHandler();
+    }
+    
+    mainEventHandler = new MainEventHandler();
   }
   
   protected abstract void addSpecificHandlers(ChannelPipeline pipeline);
@@ -164,10 +250,20 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
           new IdleStateHandler(GlobalTimer.getTimer(), timeout, 0, 0));
     }
     
-    pipeline.addLast("openHandler", new OpenChannelHandler(server));
+    pipeline.addLast("openHandler", openChannelHandler);
+    pipeline.addLast("trafficMetrics", trafficMetricsHandler);
     
-    if (Context.isLoggerEnabled()) {
-      pipeline.addLast("logger", new StandardLoggingHandler());
+    if (standardLoggingHandler != null) {
+      pipeline.addLast("logger", standardLoggingHandler);
+    }
+    
+    if (captureHandler != null) {
+      pipeline.addLast("capture", captureHandler);
+    }
+    
+    if (forwarderSettings != null) {
+      pipeline.addLast("objectForwarder", new ProtocolForwarder(
+          forwarderSettings));
     }
     
     addSpecificHandlers(pipeline);
@@ -184,7 +280,7 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
     if (locationProviderHandler != null) {
       pipeline.addLast("location", locationProviderHandler);
     }
-    pipeline.addLast("remoteAddress", new RemoteAddressHandler());
+    pipeline.addLast("remoteAddress", remoteAddressHandler);
     
     addDynamicHandlers(pipeline);
     
@@ -192,27 +288,24 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
       pipeline.addLast("filter", filterHandler);
     }
     
-    if (Context.getDataManager() != null) {
-      pipeline.addLast("dataHandler", new DefaultDataHandler());
+    if (defaultDataHandler != null) {
+      pipeline.addLast("dataHandler", defaultDataHandler);
+    }
+    
+    if (webDataHandler != null) {
+      pipeline.addLast("webHandler", webDataHandler);
+    }
+    
+    if (splunkDataHandler != null) {
+      pipeline.addLast("splunkHandler", splunkDataHandler);
     }
     
-    if (Context.getConfig().getBoolean("forward.enable")) {
-      String forwardUrl = Context.getConfig().getString("forward.url");
-      pipeline.addLast("webHandler", new WebDataHandler(forwardUrl));
+    if (positionForwarder != null) {
+      pipeline.addLast("positionForwarder", positionForwarder);
     }
     
-    if (Context.getConfig().getBoolean("forward.splunk.enable")) {
-      String forwardSplunkUrl = Context.getConfig().getString(
-          "forward.splunk.url");
-      String forwardSplunkToken = Context.getConfig().getString(
-          "forward.splunk.token");
-      String host = Context.getConfig().getString("forward.splunk.host");
-      String source = Context.getConfig().getString("forward.splunk.source");
-      String sourceType = Context.getConfig().getString(
-          "forward.splunk.sourcetype");
-      String index = Context.getConfig().getString("forward.splunk.index");
-      pipeline.addLast("splunkHandler", new SplunkDataHandler(forwardSplunkUrl,
-          forwardSplunkToken, host, source, sourceType, index));
+    if (brokerDataHandler != null) {
+      pipeline.addLast("brokerHandler", brokerDataHandler);
     }
     
     if (commandResultEventHandler != null) {
@@ -231,7 +324,7 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
       pipeline.addLast("GeofenceEventHandler", geofenceEventHandler);
     }
     
-    pipeline.addLast("mainHandler", new MainEventHandler());
+    pipeline.addLast("mainHandler", mainEventHandler);
     return pipeline;
   }
   
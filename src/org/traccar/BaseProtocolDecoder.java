@@ -20,7 +20,10 @@ import java.net.SocketAddress;
 import java.util.Date;
 
 import org.jboss.netty.channel.Channel;
+import org.traccar.capture.CaptureHandler;
 import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.MetricsRegistry;
 import org.traccar.model.Device;
 import org.traccar.model.Position;
 
@@ -28,6 +31,9 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
   
   private final Protocol protocol;
   
+  private final Counter messageCounter;
+  private final Counter errorCounter;
+  
   public String getProtocolName() {
     return protocol.getName();
   }
@@ -49,6 +55,9 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
           .getDeviceByUniqueId(uniqueId);
       if (device != null) {
         deviceId = device.getId();
+        if (Context.getCaptureWriter() != null && channel != null) {
+          CaptureHandler.identified(channel, uniqueId);
+        }
         Context.getConnectionManager().addActiveDevice(deviceId, protocol,
             channel, remoteAddress);
         return true;
@@ -78,6 +87,12 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
   
   public BaseProtocolDecoder(Protocol protocol) {
     this.protocol = protocol;
+    
+    MetricsRegistry metrics = Context.getMetricsRegistry();
+    messageCounter = metrics.counter("protocol." + protocol.getName()
+        + ".messages");
+    errorCounter = metrics.counter("protocol." + protocol.getName()
+        + ".errors");
   }
   
   public void getLastLocation(Position position, Date deviceTime) {
@@ -107,12 +122,19 @@ public abstract class BaseProtocolDecoder extends ExtendedObjectDecoder {
   @Override
   protected void onMessageEvent(Channel channel, SocketAddress remoteAddress,
       Object msg) {
+    messageCounter.inc();
     if (hasDeviceId()) {
       Context.getConnectionManager().updateDevice(deviceId,
           Device.STATUS_ONLINE, new Date());
     }
   }
   
+  @Override
+  protected void onDecodeError(Channel channel, SocketAddress remoteAddress,
+      Object msg) {
+    errorCounter.inc();
+  }
+  
   @Override
   protected Object handleEmptyMessage(Channel channel,
       SocketAddress remoteAddress, Object msg) {
@@ -15,6 +15,11 @@
  */
 package org.traccar;
 
+import org.traccar.broker.BrokerProducer;
+import org.traccar.capture.CaptureWriter;
+import org.traccar.forward.ForwarderConnectionManager;
+import org.traccar.forward.PositionForwarder;
+import org.traccar.database.AddressUpdater;
 import org.traccar.database.ConnectionManager;
 import org.traccar.database.DataManager;
 import org.traccar.database.GeofenceManager;
@@ -23,17 +28,24 @@ import org.traccar.database.NotificationManager;
 import org.traccar.database.PermissionsManager;
 import org.traccar.geocode.BingMapsReverseGeocoder;
 import org.traccar.geocode.FactualReverseGeocoder;
+import org.traccar.geocode.GeocodeCache;
 import org.traccar.geocode.GeocodeFarmReverseGeocoder;
 import org.traccar.geocode.GisgraphyReverseGeocoder;
 import org.traccar.geocode.GoogleReverseGeocoder;
 import org.traccar.geocode.MapQuestReverseGeocoder;
 import org.traccar.geocode.NominatimReverseGeocoder;
+import org.traccar.geocode.OfflineReverseGeocoder;
 import org.traccar.geocode.OpenCageReverseGeocoder;
 import org.traccar.geocode.ReverseGeocoder;
+import org.traccar.geocode.ThrottledReverseGeocoder;
 import org.traccar.helper.Log;
+import org.traccar.location.BaseLocationProvider;
+import org.traccar.location.CachedLocationProvider;
+import org.traccar.location.LocalLocationProvider;
 import org.traccar.location.LocationProvider;
 import org.traccar.location.MozillaLocationProvider;
 import org.traccar.location.OpenCellIdLocationProvider;
+import org.traccar.metrics.MetricsRegistry;
 import org.traccar.web.WebServer;
 
 import com.ning.http.client.AsyncHttpClient;
@@ -115,12 +127,66 @@ public final class Context {
     return notificationManager;
   }
   
+  private static CaptureWriter captureWriter;
+  
+  public static CaptureWriter getCaptureWriter() {
+    return captureWriter;
+  }
+  
+  private static ForwarderConnectionManager forwarderConnectionManager;
+  
+  public static ForwarderConnectionManager getForwarderConnectionManager() {
+    return forwarderConnectionManager;
+  }
+  
+  private static GeocodeCache geocodeCache;
+  
+  public static GeocodeCache getGeocodeCache() {
+    return geocodeCache;
+  }
+  
+  private static AddressUpdater addressUpdater;
+  
+  public static AddressUpdater getAddressUpdater() {
+    return addressUpdater;
+  }
+  
+  private static BrokerProducer brokerProducer;
+  
+  public static BrokerProducer getBrokerProducer() {
+    return brokerProducer;
+  }
+  
+  private static WebDataHandler webDataHandler;
+  
+  public static WebDataHandler getWebDataHandler() {
+    return webDataHandler;
+  }
+  
+  private static SplunkDataHandler splunkDataHandler;
+  
+  public static SplunkDataHandler getSplunkDataHandler() {
+    return splunkDataHandler;
+  }
+  
+  private static PositionForwarder positionForwarder;
+  
+  public static PositionForwarder getPositionForwarder() {
+    return positionForwarder;
+  }
+  
   private static final AsyncHttpClient ASYNC_HTTP_CLIENT = new AsyncHttpClient();
   
   public static AsyncHttpClient getAsyncHttpClient() {
     return ASYNC_HTTP_CLIENT;
   }
   
+  private static final MetricsRegistry METRICS_REGISTRY = new MetricsRegistry();
+  
+  public static MetricsRegistry getMetricsRegistry() {
+    return METRICS_REGISTRY;
+  }
+  
   public static void init(String[] arguments) throws Exception {
     
     config = new Config();
@@ -133,6 +199,37 @@ public final class Context {
       Log.setupLogger(config);
     }
     
+    if (config.getBoolean("metrics.jmx")) {
+      METRICS_REGISTRY.enableJmx();
+    }
+    
+    if (config.getBoolean("capture.enable")) {
+      captureWriter = new CaptureWriter(config.getString("capture.file"),
+          config.getLong("capture.maxSize") * 1024 * 1024, config.getInteger(
+              "capture.queueSize", 10000));
+    }
+    
+    forwarderConnectionManager = new ForwarderConnectionManager(config);
+    
+    if (config.getBoolean("broker.enable")) {
+      brokerProducer = new BrokerProducer(config);
+    }
+    
+    // one queue and request window for the pipelines of all protocols
+    if (config.getBoolean("forward.enable")) {
+      webDataHandler = new WebDataHandler(config);
+    }
+    
+    // a second handler would resubmit the same spill files
+    if (config.getBoolean("forward.splunk.enable")) {
+      splunkDataHandler = new SplunkDataHandler(config);
+    }
+    
+    // one upstream session per device, whichever server it reports to
+    if (config.getBoolean("forward.position.enable")) {
+      positionForwarder = PositionForwarder.create(config);
+    }
+    
     if (config.hasKey("database.url")) {
       dataManager = new DataManager(config);
     }
@@ -143,54 +240,91 @@ public final class Context {
       String url = config.getString("geocoder.url");
       String key = config.getString("geocoder.key");
       
-      int cacheSize = config.getInteger("geocoder.cacheSize");
       switch (type) {
       case "nominatim":
-        reverseGeocoder = new NominatimReverseGeocoder(url, cacheSize);
+        reverseGeocoder = new NominatimReverseGeocoder(url);
         break;
       case "gisgraphy":
-        reverseGeocoder = new GisgraphyReverseGeocoder(url, cacheSize);
+        reverseGeocoder = new GisgraphyReverseGeocoder(url);
         break;
       case "mapquest":
-        reverseGeocoder = new MapQuestReverseGeocoder(url, key, cacheSize);
+        reverseGeocoder = new MapQuestReverseGeocoder(url, key);
         break;
       case "opencage":
-        reverseGeocoder = new OpenCageReverseGeocoder(url, key, cacheSize);
+        reverseGeocoder = new OpenCageReverseGeocoder(url, key);
         break;
       case "bingmaps":
-        reverseGeocoder = new BingMapsReverseGeocoder(url, key, cacheSize);
+        reverseGeocoder = new BingMapsReverseGeocoder(url, key);
         break;
       case "factual":
-        reverseGeocoder = new FactualReverseGeocoder(url, key, cacheSize);
+        reverseGeocoder = new FactualReverseGeocoder(url, key);
+        break;
+      case "offline":
+        reverseGeocoder = new OfflineReverseGeocoder(config);
         break;
       case "geocodefarm":
         if (key != null) {
-          reverseGeocoder = new GeocodeFarmReverseGeocoder(key, cacheSize);
+          reverseGeocoder = new GeocodeFarmReverseGeocoder(key);
         } else {
-          reverseGeocoder = new GeocodeFarmReverseGeocoder(cacheSize);
+          reverseGeocoder = new GeocodeFarmReverseGeocoder();
         }
       default:
         if (key != null) {
-          reverseGeocoder = new GoogleReverseGeocoder(key, cacheSize);
+          reverseGeocoder = new GoogleReverseGeocoder(key);
         } else {
-          reverseGeocoder = new GoogleReverseGeocoder(cacheSize);
+          reverseGeocoder = new GoogleReverseGeocoder();
         }
         break;
       }
+      
+      // offline lookups are answered in place, without cache or limits
+      if (!type.equals("offline")) {
+        if (config.getInteger("geocoder.cacheSize") > 0) {
+          geocodeCache = new GeocodeCache(config);
+        }
+        reverseGeocoder = new ThrottledReverseGeocoder(reverseGeocoder,
+            geocodeCache, config);
+      }
+      
+      if (config.getBoolean("geocoder.async") && dataManager != null) {
+        addressUpdater = new AddressUpdater(dataManager, config.getInteger(
+            "geocoder.updateQueueSize", 10000));
+      }
     }
     
     if (config.getBoolean("location.enable")) {
       String type = config.getString("location.type", "opencellid");
       String key = config.getString("location.key");
       
-      switch (type) {
+      // the local database falls back to location.fallback, if set
+      String remote = type;
+      if (type.equals("local")) {
+        remote = config.getString("location.fallback", "none");
+      }
+      
+      BaseLocationProvider provider;
+      switch (remote) {
+      case "none":
+        provider = null;
+        break;
       case "mozilla":
-        locationProvider = new MozillaLocationProvider();
+        provider = new MozillaLocationProvider();
         break;
       default:
-        locationProvider = new OpenCellIdLocationProvider(key);
+        provider = new OpenCellIdLocationProvider(key);
         break;
       }
+      
+      if (provider != null && config.getInteger("location.cacheSize", 10000)
+          > 0) {
+        provider = new CachedLocationProvider(provider, config);
+      }
+      
+      if (type.equals("local")) {
+        locationProvider = new LocalLocationProvider(config, provider);
+      } else {
+        locationProvider = provider;
+      }
     }
     
     if (config.getBoolean("web.enable")) {
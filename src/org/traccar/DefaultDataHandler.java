@@ -15,9 +15,11 @@
  */
 package org.traccar;
 
+import org.jboss.netty.channel.ChannelHandler;
 import org.traccar.helper.Log;
 import org.traccar.model.Position;
 
+@ChannelHandler.Sharable
 public class DefaultDataHandler extends BaseDataHandler {
   
   @Override
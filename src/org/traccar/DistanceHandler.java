@@ -24,6 +24,22 @@ import org.traccar.model.Position;
 
 public class DistanceHandler extends BaseDataHandler {
   
+  /**
+   * Half even rounding to centimeters of the decimal value, as
+   * BigDecimal.valueOf(distance).setScale(2, HALF_EVEN) does. The binary
+   * product is only used when it is clearly away from a half cent, values
+   * close to one such as 1.015 take the exact path.
+   */
+  private static double round(double distance) {
+    double scaled = distance * 100;
+    double fraction = scaled - Math.floor(scaled);
+    if (Math.abs(fraction - 0.5) <= Math.ulp(scaled) * 8) {
+      return BigDecimal.valueOf(distance).setScale(2, RoundingMode.HALF_EVEN)
+          .doubleValue();
+    }
+    return Math.rint(scaled) / 100;
+  }
+  
   private Position getLastPosition(long deviceId) {
     if (Context.getConnectionManager() != null) {
       return Context.getConnectionManager().getLastPosition(deviceId);
@@ -46,8 +62,7 @@ public class DistanceHandler extends BaseDataHandler {
         distance += DistanceCalculator.distance(position.getLatitude(),
             position.getLongitude(), last.getLatitude(), last.getLongitude());
         
-        distance = BigDecimal.valueOf(distance)
-            .setScale(2, RoundingMode.HALF_EVEN).doubleValue();
+        distance = round(distance);
       }
     }
     
@@ -33,9 +33,11 @@ import org.traccar.model.Position;
 
 public abstract class ExtendedObjectDecoder implements ChannelUpstreamHandler {
   
+  private final boolean saveOriginal = Context.getConfig().getBoolean(
+      "database.saveOriginal");
+  
   private void saveOriginal(Object decodedMessage, Object originalMessage) {
-    if (Context.getConfig().getBoolean("database.saveOriginal")
-        && decodedMessage instanceof Position) {
+    if (saveOriginal && decodedMessage instanceof Position) {
       Position position = (Position) decodedMessage;
       if (originalMessage instanceof ChannelBuffer) {
         position.set(Position.KEY_ORIGINAL,
@@ -58,8 +60,14 @@ public abstract class ExtendedObjectDecoder implements ChannelUpstreamHandler {
     
     MessageEvent e = (MessageEvent) evt;
     Object originalMessage = e.getMessage();
-    Object decodedMessage = decode(e.getChannel(), e.getRemoteAddress(),
-        originalMessage);
+    Object decodedMessage;
+    try {
+      decodedMessage = decode(e.getChannel(), e.getRemoteAddress(),
+          originalMessage);
+    } catch (Exception error) {
+      onDecodeError(e.getChannel(), e.getRemoteAddress(), originalMessage);
+      throw error;
+    }
     onMessageEvent(e.getChannel(), e.getRemoteAddress(), originalMessage); // call
                                                                            // after
                                                                            // decode
@@ -89,6 +97,10 @@ public abstract class ExtendedObjectDecoder implements ChannelUpstreamHandler {
       Object msg) {
   }
   
+  protected void onDecodeError(Channel channel, SocketAddress remoteAddress,
+      Object msg) {
+  }
+  
   protected Object handleEmptyMessage(Channel channel,
       SocketAddress remoteAddress, Object msg) {
     return null;
@@ -101,8 +101,9 @@ public class FilterHandler extends BaseDataHandler {
     if (filterDistance != 0) {
       Position last = getLastPosition(position.getDeviceId());
       if (last != null) {
-        double distance = DistanceCalculator.distance(position.getLatitude(),
-            position.getLongitude(), last.getLatitude(), last.getLongitude());
+        double distance = DistanceCalculator.distanceApproximate(
+            position.getLatitude(), position.getLongitude(),
+            last.getLatitude(), last.getLongitude());
         return distance < filterDistance;
       } else {
         return false;
@@ -21,6 +21,9 @@ import org.jboss.netty.channel.ChannelUpstreamHandler;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.MessageEvent;
 import org.traccar.location.LocationProvider;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Histogram;
+import org.traccar.metrics.MetricsRegistry;
 import org.traccar.model.Position;
 
 public class LocationProviderHandler implements ChannelUpstreamHandler {
@@ -28,10 +31,17 @@ public class LocationProviderHandler implements ChannelUpstreamHandler {
   private final LocationProvider locationProvider;
   private final boolean processInvalidPositions;
   
+  private final Histogram latency;
+  private final Counter pending;
+  
   public LocationProviderHandler(LocationProvider locationProvider,
       boolean processInvalidPositions) {
     this.locationProvider = locationProvider;
     this.processInvalidPositions = processInvalidPositions;
+    
+    MetricsRegistry metrics = Context.getMetricsRegistry();
+    latency = metrics.histogram("handler.LocationProviderHandler");
+    pending = metrics.counter("location.pending");
   }
   
   @Override
@@ -48,10 +58,14 @@ public class LocationProviderHandler implements ChannelUpstreamHandler {
       final Position position = (Position) message;
       if (position.getOutdated() || processInvalidPositions
           && !position.getValid()) {
+        final long start = System.nanoTime();
+        pending.inc();
         locationProvider.getLocation(position.getAttributes(),
             new LocationProvider.LocationProviderCallback() {
               @Override
               public void onSuccess(double latitude, double longitude) {
+                pending.dec();
+                latency.time(start);
                 position.set(Position.KEY_APPROXIMATE, true);
                 position.setValid(true);
                 position.setFixTime(position.getDeviceTime());
@@ -63,6 +77,8 @@ public class LocationProviderHandler implements ChannelUpstreamHandler {
               
               @Override
               public void onFailure() {
+                pending.dec();
+                latency.time(start);
                 Channels.fireMessageReceived(ctx, position,
                     e.getRemoteAddress());
               }
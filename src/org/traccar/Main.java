@@ -31,6 +31,7 @@ public final class Main {
     Log.info("Starting server...");
     
     Context.getServerManager().start();
+    Context.getForwarderConnectionManager().recover();
     if (Context.getWebServer() != null) {
       Context.getWebServer().start();
     }
@@ -44,6 +45,29 @@ public final class Main {
           Context.getWebServer().stop();
         }
         Context.getServerManager().stop();
+        Context.getForwarderConnectionManager().close();
+        
+        if (Context.getWebDataHandler() != null) {
+          Context.getWebDataHandler().close();
+        }
+        
+        if (Context.getSplunkDataHandler() != null) {
+          Context.getSplunkDataHandler().close();
+        }
+        
+        if (Context.getGeocodeCache() != null) {
+          Context.getGeocodeCache().close();
+        }
+        
+        if (Context.getBrokerProducer() != null) {
+          Context.getBrokerProducer().close();
+        }
+        
+        if (Context.getCaptureWriter() != null) {
+          Context.getCaptureWriter().close();
+        }
+        
+        Log.shutdown();
       }
     });
   }
@@ -18,6 +18,7 @@ package org.traccar;
 import java.text.SimpleDateFormat;
 
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
@@ -28,6 +29,7 @@ import org.jboss.netty.handler.timeout.IdleStateEvent;
 import org.traccar.helper.Log;
 import org.traccar.model.Position;
 
+@ChannelHandler.Sharable
 public class MainEventHandler extends IdleStateAwareChannelHandler {
   
   @Override
@@ -37,29 +39,31 @@ public class MainEventHandler extends IdleStateAwareChannelHandler {
       
       Position position = (Position) e.getMessage();
       
-      String uniqueId = Context.getDataManager()
-          .getDeviceById(position.getDeviceId()).getUniqueId();
-      
       // Log position
-      StringBuilder s = new StringBuilder();
-      s.append(formatChannel(e.getChannel())).append(" ");
-      s.append("id: ").append(uniqueId).append(", ");
-      s.append("time: ")
-          .append(
-              new SimpleDateFormat(Log.DATE_FORMAT).format(position
-                  .getFixTime())).append(", ");
-      s.append("lat: ").append(String.format("%.5f", position.getLatitude()))
-          .append(", ");
-      s.append("lon: ").append(String.format("%.5f", position.getLongitude()))
-          .append(", ");
-      s.append("speed: ").append(String.format("%.1f", position.getSpeed()))
-          .append(", ");
-      s.append("course: ").append(String.format("%.1f", position.getCourse()));
-      Object cmdResult = position.getAttributes().get(Position.KEY_RESULT);
-      if (cmdResult != null) {
-        s.append(", result: ").append(cmdResult);
+      if (Log.isInfoEnabled()) {
+        String uniqueId = Context.getIdentityManager()
+            .getDeviceById(position.getDeviceId()).getUniqueId();
+        
+        StringBuilder s = new StringBuilder(128);
+        s.append(formatChannel(e.getChannel())).append(" ");
+        s.append("id: ").append(uniqueId).append(", ");
+        s.append("time: ")
+            .append(DATE_FORMAT.get().format(position.getFixTime()))
+            .append(", ");
+        s.append("lat: ");
+        appendFixed(s, position.getLatitude(), 5).append(", ");
+        s.append("lon: ");
+        appendFixed(s, position.getLongitude(), 5).append(", ");
+        s.append("speed: ");
+        appendFixed(s, position.getSpeed(), 1).append(", ");
+        s.append("course: ");
+        appendFixed(s, position.getCourse(), 1);
+        Object cmdResult = position.getAttributes().get(Position.KEY_RESULT);
+        if (cmdResult != null) {
+          s.append(", result: ").append(cmdResult);
+        }
+        Log.info(s.toString());
       }
-      Log.info(s.toString());
       
       Position lastPosition = Context.getConnectionManager().getLastPosition(
           position.getDeviceId());
@@ -70,8 +74,35 @@ public class MainEventHandler extends IdleStateAwareChannelHandler {
     }
   }
   
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return new SimpleDateFormat(Log.DATE_FORMAT);
+        }
+      };
+  
+  private static final long[] POWERS = { 1, 10, 100, 1000, 10000, 100000 };
+  
+  /**
+   * Fixed point formatting without String.format
+   */
+  private static StringBuilder appendFixed(StringBuilder s, double value,
+      int decimals) {
+    long scaled = Math.round(Math.abs(value) * POWERS[decimals]);
+    if (value < 0 && scaled != 0) {
+      s.append('-');
+    }
+    s.append(scaled / POWERS[decimals]).append('.');
+    String fraction = Long.toString(scaled % POWERS[decimals]);
+    for (int i = fraction.length(); i < decimals; i++) {
+      s.append('0');
+    }
+    return s.append(fraction);
+  }
+  
   private static String formatChannel(Channel channel) {
-    return String.format("[%08X]", channel.getId());
+    return "[" + Log.formatId(channel.getId()) + "]";
   }
   
   @Override
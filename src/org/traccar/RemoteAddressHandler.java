@@ -19,8 +19,10 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
 import org.traccar.model.Position;
 
+@ChannelHandler.Sharable
 public class RemoteAddressHandler extends ExtendedObjectDecoder {
   
   @Override
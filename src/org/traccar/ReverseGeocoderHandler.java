@@ -15,6 +15,8 @@
  */
 package org.traccar;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -22,6 +24,9 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.MessageEvent;
 import org.traccar.geocode.AddressFormat;
 import org.traccar.geocode.ReverseGeocoder;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Histogram;
+import org.traccar.metrics.MetricsRegistry;
 import org.traccar.model.Position;
 
 public class ReverseGeocoderHandler implements ChannelUpstreamHandler {
@@ -29,6 +34,10 @@ public class ReverseGeocoderHandler implements ChannelUpstreamHandler {
   private final ReverseGeocoder geocoder;
   private final boolean processInvalidPositions;
   private final AddressFormat addressFormat;
+  private final boolean async;
+  
+  private final Histogram latency;
+  private final Counter pending;
   
   public ReverseGeocoderHandler(ReverseGeocoder geocoder,
       boolean processInvalidPositions) {
@@ -41,6 +50,12 @@ public class ReverseGeocoderHandler implements ChannelUpstreamHandler {
     } else {
       addressFormat = new AddressFormat();
     }
+    
+    async = Context.getAddressUpdater() != null;
+    
+    MetricsRegistry metrics = Context.getMetricsRegistry();
+    latency = metrics.histogram("handler.ReverseGeocoderHandler");
+    pending = metrics.counter("geocoder.pending");
   }
   
   @Override
@@ -55,12 +70,39 @@ public class ReverseGeocoderHandler implements ChannelUpstreamHandler {
     Object message = e.getMessage();
     if (message instanceof Position) {
       final Position position = (Position) message;
-      if (processInvalidPositions || position.getValid()) {
+      if (async && (processInvalidPositions || position.getValid())) {
+        // pass position on, address is written back once resolved unless
+        // the callback ran before the position left this handler
+        final long start = System.nanoTime();
+        final AtomicBoolean passed = new AtomicBoolean();
+        pending.inc();
+        geocoder.getAddress(addressFormat, position.getLatitude(),
+            position.getLongitude(),
+            new ReverseGeocoder.ReverseGeocoderCallback() {
+              @Override
+              public void onResult(String address) {
+                pending.dec();
+                latency.time(start);
+                if (address != null) {
+                  position.setAddress(address);
+                  if (passed.get()) {
+                    Context.getAddressUpdater().update(position);
+                  }
+                }
+              }
+            });
+        passed.set(true);
+        Channels.fireMessageReceived(ctx, position, e.getRemoteAddress());
+      } else if (processInvalidPositions || position.getValid()) {
+        final long start = System.nanoTime();
+        pending.inc();
         geocoder.getAddress(addressFormat, position.getLatitude(),
             position.getLongitude(),
             new ReverseGeocoder.ReverseGeocoderCallback() {
               @Override
               public void onResult(String address) {
+                pending.dec();
+                latency.time(start);
                 position.setAddress(address);
                 Channels.fireMessageReceived(ctx, position,
                     e.getRemoteAddress());
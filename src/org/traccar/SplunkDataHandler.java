@@ -1,84 +1,397 @@
 package org.traccar;
 
-import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
 import org.traccar.model.Device;
-import org.traccar.model.MiscFormatter;
 import org.traccar.model.Position;
+import org.traccar.web.JsonConverter;
 
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
 
+/**
+ * Submits positions to the Splunk HTTP Event Collector in batches.
+ *
+ * Events are serialised straight into one reusable buffer and sent once
+ * forward.splunk.batchSize events or forward.splunk.batchBytes bytes are
+ * collected, or forward.splunk.linger milliseconds after the first event. At
+ * most forward.splunk.maxInFlight requests are outstanding and
+ * forward.splunk.queueSize batches wait behind them. Batches that do not fit
+ * or fail forward.splunk.retries times are dropped, or with
+ * forward.splunk.overflow set to spill, written to
+ * forward.splunk.spillDirectory and submitted once the queue is empty. On
+ * shutdown the linger buffer, the queue and batches still in flight go the
+ * same way. The single instance owned by Context serves the pipelines of all
+ * protocols.
+ */
+@ChannelHandler.Sharable
 public class SplunkDataHandler extends BaseDataHandler {
   
+  private static final String SPILL_SUFFIX = ".hec";
+  
   private final String url;
-  private final String token;
-  private final String host;
-  private final String source;
-  private final String sourceType;
-  private final String index;
-  
-  public SplunkDataHandler(String url, String token, String host,
-      String source, String sourceType, String index) {
-    this.url = url;
-    this.token = token;
-    this.host = host;
-    this.source = source;
-    this.sourceType = sourceType;
-    this.index = index;
-  }
+  private final String authorization;
+  private final String envelope;
   
-  public String formatRequest(Position position) {
-    Device device = Context.getIdentityManager().getDeviceById(
-        position.getDeviceId());
-    
-    Map<String, Object> eventAttributes = new HashMap<>();
-    eventAttributes.put("id", device.getUniqueId());
-    eventAttributes.put("protocol", String.valueOf(position.getProtocol()));
-    eventAttributes.put("latitude", String.valueOf(position.getLatitude()));
-    eventAttributes.put("longitude", String.valueOf(position.getLongitude()));
-    eventAttributes.put("altitude", String.valueOf(position.getAltitude()));
-    eventAttributes.put("speed", String.valueOf(position.getSpeed()));
-    eventAttributes.put("course", String.valueOf(position.getCourse()));
-    eventAttributes.putAll(position.getAttributes());
-    
-    Map<String, Object> mainAttributes = new HashMap<>();
-    mainAttributes.put("host", host);
-    mainAttributes.put("source", source);
-    mainAttributes.put("sourcetype", sourceType);
-    mainAttributes.put("index", index);
-    mainAttributes.put("event", MiscFormatter.toJsonString(eventAttributes));
-    
-    return MiscFormatter.toJsonString(mainAttributes);
-  }
+  private final int batchSize;
+  private final int batchBytes;
+  private final long linger;
+  private final boolean gzip;
+  private final int maxInFlight;
+  private final int queueSize;
+  private final int retries;
+  private final long retryDelay;
+  private final File spillDirectory;
   
-  @Override
-  protected Position handlePosition(Position position) {
+  private final StringBuilder buffer = new StringBuilder(64 * 1024);
+  private int bufferCount;
+  private Timeout lingerTimeout;
+  
+  private final Deque<Batch> queue = new ArrayDeque<>();
+  private final Deque<File> spilled = new ArrayDeque<>();
+  private final Set<Batch> sending = new HashSet<>();
+  private int inFlight;
+  private long spillSequence;
+  private boolean closed;
+  
+  private final Counter pending = Context.getMetricsRegistry().counter(
+      "forward.splunk.pending");
+  private final Counter dropped = Context.getMetricsRegistry().counter(
+      "forward.splunk.dropped");
+  private final Counter failed = Context.getMetricsRegistry().counter(
+      "forward.splunk.failed");
+  private final Counter spilledCounter = Context.getMetricsRegistry()
+      .counter("forward.splunk.spilled");
+  
+  private final class Batch implements TimerTask {
     
-    final String body = formatRequest(position);
+    private final byte[] body;
+    private final int count;
+    private File file;
+    private int attempt;
     
-    Context.getAsyncHttpClient().preparePost(url)
-        .addHeader("Content-Type", "application/json")
-        .addHeader("Authorization", "Splunk ".concat(token)).setBody(body)
-        .execute(new AsyncCompletionHandler<Response>() {
+    private Batch(byte[] body, int count) {
+      this.body = body;
+      this.count = count;
+    }
+    
+    private void send() {
+      AsyncHttpClient.BoundRequestBuilder builder = Context
+          .getAsyncHttpClient().preparePost(url)
+          .addHeader("Content-Type", "application/json")
+          .addHeader("Authorization", authorization).setBody(body);
+      if (gzip) {
+        builder.addHeader("Content-Encoding", "gzip");
+      }
+      try {
+        builder.execute(new AsyncCompletionHandler<Response>() {
           @Override
           public Response onCompleted(Response response) throws Exception {
-            Log.debug("[SplunkDataHandler] Handled position : request.url = "
-                + url + " , request.body = " + body
-                + " , response.statusCode = " + response.getStatusCode()
-                + " , response.body = " + response.getResponseBody());
+            int status = response.getStatusCode();
+            if (Log.isDebugEnabled()) {
+              Log.debug("[SplunkDataHandler] Handled batch : count = {} , "
+                  + "response.statusCode = {} , response.body = {}", count,
+                  status, response.getResponseBody());
+            }
+            if (status == 429 || status >= 500) {
+              retry();
+            } else {
+              if (status >= 400) {
+                failed.inc(count);
+              }
+              complete();
+            }
             return response;
           }
           
           @Override
           public void onThrowable(Throwable throwable) {
-            Log.debug("[SplunkDataHandler] Handled position : request.url = "
-                + url + " , request.body = " + body + " , throwable = "
-                + throwable);
+            Log.debug("[SplunkDataHandler] Handled batch : count = {} , "
+                + "throwable = {}", count, throwable);
+            retry();
           }
         });
+      } catch (RuntimeException error) {
+        Log.warning(error);
+        retry();
+      }
+    }
+    
+    private void retry() {
+      boolean done;
+      synchronized (SplunkDataHandler.this) {
+        // spilled batches are kept until delivered
+        done = closed || attempt >= retries && file == null;
+        if (done && file == null) {
+          overflow(this);
+        }
+      }
+      if (done) {
+        release(this);
+      } else {
+        GlobalTimer.getTimer().newTimeout(this,
+            retryDelay << Math.min(attempt, 6), TimeUnit.MILLISECONDS);
+        attempt += 1;
+      }
+    }
+    
+    private void complete() {
+      synchronized (SplunkDataHandler.this) {
+        if (file != null && !file.delete()) {
+          Log.warning("Failed to delete " + file);
+        }
+      }
+      release(this);
+    }
+    
+    @Override
+    public void run(Timeout timeout) {
+      send();
+    }
+    
+  }
+  
+  public SplunkDataHandler(Config config) {
+    url = config.getString("forward.splunk.url");
+    authorization = "Splunk ".concat(config.getString("forward.splunk.token"));
+    
+    StringBuilder s = new StringBuilder("{");
+    appendField(s, "host", config.getString("forward.splunk.host"));
+    appendField(s, "source", config.getString("forward.splunk.source"));
+    appendField(s, "sourcetype", config.getString("forward.splunk.sourcetype"));
+    appendField(s, "index", config.getString("forward.splunk.index"));
+    envelope = s.append("\"event\":{").toString();
+    
+    batchSize = config.getInteger("forward.splunk.batchSize", 100);
+    batchBytes = config.getInteger("forward.splunk.batchBytes", 512 * 1024);
+    linger = config.getLong("forward.splunk.linger", 1000);
+    gzip = !config.hasKey("forward.splunk.gzip")
+        || config.getBoolean("forward.splunk.gzip");
+    maxInFlight = config.getInteger("forward.splunk.maxInFlight", 4);
+    queueSize = config.getInteger("forward.splunk.queueSize", 64);
+    retries = config.getInteger("forward.splunk.retries", 3);
+    retryDelay = config.getLong("forward.splunk.retryDelay", 1000);
+    
+    if ("spill".equals(config.getString("forward.splunk.overflow"))) {
+      spillDirectory = new File(config.getString(
+          "forward.splunk.spillDirectory"));
+      if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+        Log.warning("Failed to create " + spillDirectory);
+      }
+      File[] files = spillDirectory.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.getName().endsWith(SPILL_SUFFIX)) {
+            spilled.add(file);
+          }
+        }
+      }
+    } else {
+      spillDirectory = null;
+    }
+  }
+  
+  private static void appendField(StringBuilder s, String key, String value) {
+    if (value != null) {
+      JsonConverter.writeString(s, key);
+      s.append(':');
+      JsonConverter.writeString(s, value);
+      s.append(',');
+    }
+  }
+  
+  public void formatEvent(StringBuilder s, Device device, Position position) {
+    s.append(envelope);
+    appendField(s, "id", device.getUniqueId());
+    appendField(s, "protocol", String.valueOf(position.getProtocol()));
+    appendField(s, "latitude", String.valueOf(position.getLatitude()));
+    appendField(s, "longitude", String.valueOf(position.getLongitude()));
+    appendField(s, "altitude", String.valueOf(position.getAltitude()));
+    appendField(s, "speed", String.valueOf(position.getSpeed()));
+    appendField(s, "course", String.valueOf(position.getCourse()));
+    for (Map.Entry<String, Object> entry
+        : position.getAttributes().entrySet()) {
+      JsonConverter.writeString(s, entry.getKey());
+      s.append(':');
+      JsonConverter.writeValue(s, entry.getValue());
+      s.append(',');
+    }
+    s.setLength(s.length() - 1);
+    s.append("}}\n");
+  }
+  
+  private byte[] encode(StringBuilder s) {
+    byte[] data = s.toString().getBytes(StandardCharsets.UTF_8);
+    if (!gzip) {
+      return data;
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream(
+        data.length / 4 + 64);
+    try (GZIPOutputStream stream = new GZIPOutputStream(output)) {
+      stream.write(data);
+    } catch (IOException error) {
+      throw new IllegalStateException(error);
+    }
+    return output.toByteArray();
+  }
+  
+  private synchronized void seal() {
+    if (lingerTimeout != null) {
+      lingerTimeout.cancel();
+      lingerTimeout = null;
+    }
+    if (bufferCount == 0) {
+      return;
+    }
+    Batch batch = new Batch(encode(buffer), bufferCount);
+    buffer.setLength(0);
+    bufferCount = 0;
+    if (queue.size() < queueSize) {
+      queue.add(batch);
+    } else {
+      overflow(batch);
+    }
+  }
+  
+  private synchronized void overflow(Batch batch) {
+    if (spillDirectory == null) {
+      dropped.inc(batch.count);
+      return;
+    }
+    File file = new File(spillDirectory, String.format("%020d_%06d%s",
+        System.currentTimeMillis(), spillSequence++ % 1000000, SPILL_SUFFIX));
+    try (OutputStream output = new FileOutputStream(file)) {
+      output.write(batch.body);
+      spilled.add(file);
+      spilledCounter.inc(batch.count);
+      batch.file = file;
+    } catch (IOException error) {
+      Log.warning(error);
+      dropped.inc(batch.count);
+    }
+  }
+  
+  private synchronized List<Batch> poll() {
+    List<Batch> batches = null;
+    while (!closed && inFlight < maxInFlight) {
+      Batch batch = queue.poll();
+      if (batch == null) {
+        File file = spilled.poll();
+        if (file == null) {
+          break;
+        }
+        try {
+          // spilled batches are re-sent as stored, the count is unknown
+          batch = new Batch(Files.readAllBytes(file.toPath()), 0);
+          batch.file = file;
+        } catch (IOException error) {
+          Log.warning(error);
+          continue;
+        }
+      }
+      if (batches == null) {
+        batches = new ArrayList<>();
+      }
+      batches.add(batch);
+      sending.add(batch);
+      inFlight += 1;
+      pending.inc();
+    }
+    return batches;
+  }
+  
+  private void dispatch() {
+    List<Batch> batches = poll();
+    if (batches != null) {
+      for (Batch batch : batches) {
+        batch.send();
+      }
+    }
+  }
+  
+  private void release(Batch batch) {
+    synchronized (this) {
+      sending.remove(batch);
+      inFlight -= 1;
+      pending.dec();
+    }
+    dispatch();
+  }
+  
+  /**
+   * Seal the linger buffer and spill, or count as dropped, every batch not
+   * yet delivered. Batches in flight are spilled as well and their files
+   * removed if the request still completes before exit.
+   */
+  public synchronized void close() {
+    seal();
+    closed = true;
+    while (!queue.isEmpty()) {
+      overflow(queue.poll());
+    }
+    for (Batch batch : sending) {
+      if (batch.file == null && spillDirectory != null) {
+        overflow(batch);
+      }
+    }
+  }
+  
+  @Override
+  protected Position handlePosition(Position position) {
+    
+    Device device = Context.getIdentityManager().getDeviceById(
+        position.getDeviceId());
+    if (device == null) {
+      return position;
+    }
+    
+    synchronized (this) {
+      if (closed) {
+        dropped.inc();
+        return position;
+      }
+      formatEvent(buffer, device, position);
+      bufferCount += 1;
+      if (bufferCount >= batchSize || buffer.length() >= batchBytes) {
+        seal();
+      } else if (lingerTimeout == null) {
+        lingerTimeout = GlobalTimer.getTimer().newTimeout(new TimerTask() {
+          @Override
+          public void run(Timeout timeout) {
+            synchronized (SplunkDataHandler.this) {
+              if (timeout == lingerTimeout) {
+                seal();
+              }
+            }
+            dispatch();
+          }
+        }, linger, TimeUnit.MILLISECONDS);
+      }
+    }
+    dispatch();
     
     return position;
   }
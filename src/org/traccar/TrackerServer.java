@@ -28,6 +28,7 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.traccar.metrics.Gauge;
 
 /**
  * Tracker server
@@ -66,6 +67,17 @@ public abstract class TrackerServer {
       }
     });
     
+    if (!isConnectionless()) {
+      Context.getMetricsRegistry().gauge("server." + protocol + ".channels",
+          new Gauge() {
+            @Override
+            public long getValue() {
+              // exclude listening channel
+              return Math.max(0, allChannels.size() - 1);
+            }
+          });
+    }
+    
   }
   
   protected abstract void addSpecificHandlers(ChannelPipeline pipeline);
@@ -18,26 +18,123 @@ package org.traccar;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Deque;
 import java.util.Formatter;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.traccar.helper.Checksum;
 import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
 import org.traccar.model.Device;
 import org.traccar.model.MiscFormatter;
 import org.traccar.model.Position;
 
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.Response;
 
+/**
+ * Delivers positions to forward.url, a template with placeholders such as
+ * {uniqueId} or {latitude} that is parsed once into segments.
+ *
+ * At most forward.web.maxInFlight requests are outstanding; further positions
+ * wait in a queue of forward.web.queueSize entries and are dropped when it is
+ * full. With forward.web.batchSize above one, rendered templates are posted to
+ * forward.web.batchUrl one per line, after forward.web.batchDelay milliseconds
+ * at the latest. Failed requests are retried forward.web.retries times with
+ * a backoff doubling from forward.web.retryDelay milliseconds. A single
+ * instance owned by Context serves the pipelines of all protocols, so the
+ * limits and batches are global. On shutdown the queue is flushed for up to
+ * forward.web.closeTimeout milliseconds and what is left is counted as
+ * dropped.
+ */
+@ChannelHandler.Sharable
 public class WebDataHandler extends BaseDataHandler {
   
-  private final String url;
+  private enum Field {
+    NAME, UNIQUE_ID, DEVICE_ID, PROTOCOL, DEVICE_TIME, FIX_TIME, VALID,
+    LATITUDE, LONGITUDE, ALTITUDE, SPEED, COURSE, STATUS_CODE, ADDRESS,
+    ATTRIBUTES, GPRMC
+  }
+  
+  private static final String[] PLACEHOLDERS = {
+    "{name}", "{uniqueId}", "{deviceId}", "{protocol}", "{deviceTime}",
+    "{fixTime}", "{valid}", "{latitude}", "{longitude}", "{altitude}",
+    "{speed}", "{course}", "{statusCode}", "{address}", "{attributes}",
+    "{gprmc}"
+  };
+  
+  private final String[] literals;
+  private final Field[] fields;
   
-  public WebDataHandler(String url) {
-    this.url = url;
+  private final String batchUrl;
+  private final int batchSize;
+  private final long batchDelay;
+  private final int maxInFlight;
+  private final int queueSize;
+  private final int retries;
+  private final long retryDelay;
+  private final long closeTimeout;
+  
+  private final Deque<String> queue = new ArrayDeque<>();
+  private int inFlight;
+  private Timeout batchTimeout;
+  private boolean batchDue;
+  private volatile boolean closed;
+  // queue length readable without the lock
+  private volatile int queued;
+  
+  private final Counter pending = Context.getMetricsRegistry().counter(
+      "forward.web.pending");
+  private final Counter dropped = Context.getMetricsRegistry().counter(
+      "forward.web.dropped");
+  private final Counter failed = Context.getMetricsRegistry().counter(
+      "forward.web.failed");
+  private final Counter retried = Context.getMetricsRegistry().counter(
+      "forward.web.retried");
+  
+  public WebDataHandler(Config config) {
+    
+    List<String> literals = new ArrayList<>();
+    List<Field> fields = new ArrayList<>();
+    String url = config.getString("forward.url");
+    int literalStart = 0;
+    int index = url.indexOf('{');
+    while (index >= 0) {
+      Field field = null;
+      for (int i = 0; i < PLACEHOLDERS.length; i++) {
+        if (url.startsWith(PLACEHOLDERS[i], index)) {
+          field = Field.values()[i];
+          literals.add(url.substring(literalStart, index));
+          fields.add(field);
+          literalStart = index + PLACEHOLDERS[i].length();
+          break;
+        }
+      }
+      index = url.indexOf('{', field != null ? literalStart : index + 1);
+    }
+    literals.add(url.substring(literalStart));
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.fields = fields.toArray(new Field[fields.size()]);
+    
+    batchUrl = config.getString("forward.web.batchUrl");
+    batchSize = batchUrl != null ? config.getInteger("forward.web.batchSize",
+        1) : 1;
+    batchDelay = config.getLong("forward.web.batchDelay", 1000);
+    maxInFlight = config.getInteger("forward.web.maxInFlight", 32);
+    queueSize = config.getInteger("forward.web.queueSize", 10000);
+    retries = config.getInteger("forward.web.retries", 3);
+    retryDelay = config.getLong("forward.web.retryDelay", 1000);
+    closeTimeout = config.getLong("forward.web.closeTimeout", 5000);
   }
   
   private static String formatSentence(Position position) {
@@ -94,77 +191,272 @@ public class WebDataHandler extends BaseDataHandler {
     }
   }
   
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException error) {
+      Log.warning(error);
+      return value;
+    }
+  }
+  
   public String formatRequest(Position position) {
     
     Device device = Context.getIdentityManager().getDeviceById(
         position.getDeviceId());
     
-    String attributes = MiscFormatter.toJsonString(position.getAttributes());
-    
-    String request = url
-        .replace("{name}", device.getName())
-        .replace("{uniqueId}", device.getUniqueId())
-        .replace("{deviceId}", String.valueOf(position.getDeviceId()))
-        .replace("{protocol}", String.valueOf(position.getProtocol()))
-        .replace("{deviceTime}",
-            String.valueOf(position.getDeviceTime().getTime()))
-        .replace("{fixTime}", String.valueOf(position.getFixTime().getTime()))
-        .replace("{valid}", String.valueOf(position.getValid()))
-        .replace("{latitude}", String.valueOf(position.getLatitude()))
-        .replace("{longitude}", String.valueOf(position.getLongitude()))
-        .replace("{altitude}", String.valueOf(position.getAltitude()))
-        .replace("{speed}", String.valueOf(position.getSpeed()))
-        .replace("{course}", String.valueOf(position.getCourse()))
-        .replace("{statusCode}", calculateStatus(position));
-    
-    if (position.getAddress() != null) {
-      try {
-        request = request.replace(
-            "{address}",
-            URLEncoder.encode(position.getAddress(),
-                StandardCharsets.UTF_8.name()));
-      } catch (UnsupportedEncodingException error) {
-        Log.warning(error);
-      }
-    }
+    StringBuilder s = new StringBuilder(256);
     
-    if (request.contains("{attributes}")) {
-      try {
-        request = request.replace("{attributes}",
-            URLEncoder.encode(attributes, StandardCharsets.UTF_8.name()));
-      } catch (UnsupportedEncodingException error) {
-        Log.warning(error);
+    for (int i = 0; i < fields.length; i++) {
+      s.append(literals[i]);
+      switch (fields[i]) {
+      case NAME:
+        s.append(device.getName());
+        break;
+      case UNIQUE_ID:
+        s.append(device.getUniqueId());
+        break;
+      case DEVICE_ID:
+        s.append(position.getDeviceId());
+        break;
+      case PROTOCOL:
+        s.append(position.getProtocol());
+        break;
+      case DEVICE_TIME:
+        s.append(position.getDeviceTime().getTime());
+        break;
+      case FIX_TIME:
+        s.append(position.getFixTime().getTime());
+        break;
+      case VALID:
+        s.append(position.getValid());
+        break;
+      case LATITUDE:
+        s.append(position.getLatitude());
+        break;
+      case LONGITUDE:
+        s.append(position.getLongitude());
+        break;
+      case ALTITUDE:
+        s.append(position.getAltitude());
+        break;
+      case SPEED:
+        s.append(position.getSpeed());
+        break;
+      case COURSE:
+        s.append(position.getCourse());
+        break;
+      case STATUS_CODE:
+        s.append(calculateStatus(position));
+        break;
+      case ADDRESS:
+        if (position.getAddress() != null) {
+          s.append(encode(position.getAddress()));
+        }
+        break;
+      case ATTRIBUTES:
+        s.append(encode(MiscFormatter.toJsonString(position.getAttributes())));
+        break;
+      case GPRMC:
+        s.append(formatSentence(position));
+        break;
+      default:
+        break;
       }
     }
+    s.append(literals[fields.length]);
     
-    if (request.contains("{gprmc}")) {
-      request = request.replace("{gprmc}", formatSentence(position));
-    }
-    
-    return request;
+    return s.toString();
   }
   
-  @Override
-  protected Position handlePosition(Position position) {
+  private final class Delivery implements TimerTask {
     
-    final String url = formatRequest(position);
+    private final List<String> requests;
+    private int attempt;
     
-    Context.getAsyncHttpClient().prepareGet(url)
-        .execute(new AsyncCompletionHandler<Response>() {
+    private Delivery(List<String> requests) {
+      this.requests = requests;
+    }
+    
+    private void send() {
+      AsyncHttpClient.BoundRequestBuilder builder;
+      if (batchSize > 1) {
+        StringBuilder body = new StringBuilder();
+        for (String request : requests) {
+          body.append(request).append('\n');
+        }
+        builder = Context.getAsyncHttpClient().preparePost(batchUrl)
+            .addHeader("Content-Type", "text/plain; charset=utf-8")
+            .setBody(body.toString());
+      } else {
+        builder = Context.getAsyncHttpClient().prepareGet(requests.get(0));
+      }
+      try {
+        builder.execute(new AsyncCompletionHandler<Response>() {
           @Override
           public Response onCompleted(Response response) throws Exception {
-            Log.debug("[WebDataHandler] Handled position : request.url = "
-                + url + " , response.statusCode = " + response.getStatusCode()
-                + " , response.body = " + response.getResponseBody());
+            if (Log.isDebugEnabled()) {
+              Log.debug("[WebDataHandler] Handled positions : count = {} , "
+                  + "request.url = {} , response.statusCode = {}",
+                  requests.size(), batchSize > 1 ? batchUrl : requests.get(0),
+                  response.getStatusCode());
+            }
+            if (response.getStatusCode() >= 500) {
+              retry();
+            } else {
+              complete();
+            }
             return response;
           }
           
           @Override
           public void onThrowable(Throwable throwable) {
-            Log.debug("[WebDataHandler] Handled position : request.url = "
-                + url + " , throwable = " + throwable);
+            Log.debug("[WebDataHandler] Handled positions : count = {} , "
+                + "throwable = {}", requests.size(), throwable);
+            retry();
           }
         });
+      } catch (RuntimeException error) {
+        Log.warning(error);
+        retry();
+      }
+    }
+    
+    private void retry() {
+      if (attempt < retries) {
+        retried.inc();
+        GlobalTimer.getTimer().newTimeout(this, retryDelay << attempt,
+            TimeUnit.MILLISECONDS);
+        attempt += 1;
+      } else {
+        failed.inc(requests.size());
+        complete();
+      }
+    }
+    
+    private void complete() {
+      pending.dec();
+      release();
+    }
+    
+    @Override
+    public void run(Timeout timeout) {
+      send();
+    }
+    
+  }
+  
+  private synchronized List<Delivery> poll() {
+    List<Delivery> deliveries = null;
+    while (inFlight < maxInFlight && !queue.isEmpty()) {
+      if (queue.size() < batchSize && !batchDue) {
+        if (batchTimeout == null) {
+          batchTimeout = GlobalTimer.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+              synchronized (WebDataHandler.this) {
+                batchTimeout = null;
+                batchDue = true;
+              }
+              dispatch();
+            }
+          }, batchDelay, TimeUnit.MILLISECONDS);
+        }
+        break;
+      }
+      List<String> requests = new ArrayList<>(Math.min(queue.size(),
+          batchSize));
+      while (requests.size() < batchSize && !queue.isEmpty()) {
+        requests.add(queue.poll());
+      }
+      if (deliveries == null) {
+        deliveries = new ArrayList<>();
+      }
+      deliveries.add(new Delivery(requests));
+      inFlight += 1;
+      pending.inc();
+    }
+    if (queue.isEmpty()) {
+      batchDue = false;
+    }
+    queued = queue.size();
+    return deliveries;
+  }
+  
+  private void dispatch() {
+    // requests are sent outside of the lock, completion may run inline
+    List<Delivery> deliveries = poll();
+    if (deliveries != null) {
+      for (Delivery delivery : deliveries) {
+        delivery.send();
+      }
+    }
+  }
+  
+  private void release() {
+    synchronized (this) {
+      inFlight -= 1;
+      notifyAll();
+    }
+    dispatch();
+  }
+  
+  /**
+   * Send queued positions without waiting for a full batch and wait a bounded
+   * time for outstanding requests, the rest is counted as dropped
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      batchDue = true;
+      if (batchTimeout != null) {
+        batchTimeout.cancel();
+        batchTimeout = null;
+      }
+    }
+    dispatch();
+    
+    long deadline = System.currentTimeMillis() + closeTimeout;
+    synchronized (this) {
+      long delay;
+      while ((inFlight > 0 || !queue.isEmpty())
+          && (delay = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          wait(delay);
+        } catch (InterruptedException error) {
+          break;
+        }
+      }
+      if (!queue.isEmpty()) {
+        Log.warning("WebDataHandler dropped " + queue.size()
+            + " queued positions on shutdown");
+        dropped.inc(queue.size());
+        queue.clear();
+        queued = 0;
+      }
+    }
+  }
+  
+  @Override
+  protected Position handlePosition(Position position) {
+    
+    // shed before formatting, checked again under the lock
+    if (closed || queued >= queueSize) {
+      dropped.inc();
+      return position;
+    }
+    
+    String request = formatRequest(position);
+    
+    synchronized (this) {
+      if (closed || queue.size() >= queueSize) {
+        dropped.inc();
+        return position;
+      }
+      queue.add(request);
+      queued = queue.size();
+    }
+    dispatch();
     
     return position;
   }
@@ -15,44 +15,161 @@
  */
 package org.traccar.api;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
 
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.traccar.Context;
+import org.traccar.GlobalTimer;
 import org.traccar.database.ConnectionManager;
+import org.traccar.metrics.Counter;
 import org.traccar.model.Device;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
 import org.traccar.web.JsonConverter;
 
+/**
+ * Pushes updates to one web client.
+ *
+ * Updates are collected and sent as one frame every web.pushInterval
+ * milliseconds. Only the latest position of each device is kept, and while a
+ * frame is still being written to a slow client newer positions replace older
+ * ones instead of queueing up. At most web.pushQueue events and device
+ * updates wait for the next frame, the oldest are dropped beyond that.
+ *
+ * Clients that negotiate the "delta" or "delta.msgpack" subprotocol receive
+ * the full position of a device only once, later frames carry its deviceId and
+ * the fields that changed since the previous frame, with null for removed
+ * fields. Attributes are compared one by one the same way. The msgpack
+ * variant sends the same structure as binary MessagePack frames.
+ */
 public class AsyncSocket extends WebSocketAdapter implements
-    ConnectionManager.UpdateListener {
+    ConnectionManager.UpdateListener, TimerTask, WriteCallback {
   
   private static final String KEY_DEVICES = "devices";
   private static final String KEY_POSITIONS = "positions";
   private static final String KEY_EVENTS = "events";
   
+  public static final String PROTOCOL_DELTA = "delta";
+  public static final String PROTOCOL_DELTA_MSGPACK = "delta.msgpack";
+  
+  private static final String KEY_DEVICE_ID = "deviceId";
+  private static final String KEY_ATTRIBUTES = "attributes";
+  
+  private static final long DEFAULT_INTERVAL = 1000;
+  private static final int DEFAULT_QUEUE = 1000;
+  
+  /**
+   * Latest serialised position per device, shared by all sockets
+   */
+  private static final ConcurrentMap<Long, SerializedPosition> POSITIONS =
+      new ConcurrentHashMap<>();
+  
+  private static final Counter SUPERSEDED = Context.getMetricsRegistry()
+      .counter("web.push.superseded");
+  private static final Counter DROPPED = Context.getMetricsRegistry()
+      .counter("web.push.dropped");
+  
+  private static final class SerializedPosition {
+    
+    private final Position position;
+    private volatile String json;
+    private volatile JsonObject object;
+    
+    private SerializedPosition(Position position) {
+      this.position = position;
+    }
+    
+    private String getJson() {
+      if (json == null) {
+        json = JsonConverter.toJsonString(position);
+      }
+      return json;
+    }
+    
+    private JsonObject getObject() {
+      if (object == null) {
+        object = JsonConverter.objectToJson(position);
+      }
+      return object;
+    }
+    
+  }
+  
   private long userId;
   
-  public AsyncSocket(long userId) {
+  private final long interval;
+  private final int queueLimit;
+  
+  private final String protocol;
+  private final Map<Long, JsonObject> sent = new HashMap<>();
+  
+  private final Map<Long, SerializedPosition> positions =
+      new LinkedHashMap<>();
+  private final List<Object> devices = new ArrayList<>();
+  private final List<Object> events = new ArrayList<>();
+  private Timeout timeout;
+  private boolean writing;
+  
+  public AsyncSocket(long userId, String protocol) {
     this.userId = userId;
+    this.protocol = protocol;
+    interval = Context.getConfig().getLong("web.pushInterval",
+        DEFAULT_INTERVAL);
+    queueLimit = Context.getConfig().getInteger("web.pushQueue",
+        DEFAULT_QUEUE);
+  }
+  
+  private static SerializedPosition serialize(Position position) {
+    SerializedPosition serialized = POSITIONS.get(position.getDeviceId());
+    if (serialized == null || serialized.position != position) {
+      serialized = new SerializedPosition(position);
+      POSITIONS.put(position.getDeviceId(), serialized);
+    }
+    return serialized;
   }
   
   @Override
   public void onWebSocketConnect(Session session) {
     super.onWebSocketConnect(session);
     
-    Map<String, Collection<?>> data = new HashMap<>();
-    data.put(KEY_POSITIONS,
-        Context.getConnectionManager().getInitialState(userId));
-    sendData(data);
+    if (protocol != null) {
+      boolean initial;
+      synchronized (this) {
+        for (Position position
+            : Context.getConnectionManager().getInitialState(userId)) {
+          updatePosition(position);
+        }
+        initial = !positions.isEmpty();
+        writing = initial;
+      }
+      if (initial) {
+        flush();
+      }
+    } else {
+      Map<String, Collection<?>> data = new HashMap<>();
+      data.put(KEY_POSITIONS,
+          Context.getConnectionManager().getInitialState(userId));
+      sendData(data);
+    }
     
     Context.getConnectionManager().addListener(userId, this);
   }
@@ -62,39 +179,199 @@ public class AsyncSocket extends WebSocketAdapter implements
     super.onWebSocketClose(statusCode, reason);
     
     Context.getConnectionManager().removeListener(userId, this);
+    synchronized (this) {
+      if (timeout != null) {
+        timeout.cancel();
+        timeout = null;
+      }
+    }
+  }
+  
+  private void queue(List<Object> list, Object object) {
+    if (list.size() >= queueLimit) {
+      list.remove(0);
+      DROPPED.inc();
+    }
+    list.add(object);
+  }
+  
+  private void schedule() {
+    if (timeout == null && !writing) {
+      timeout = GlobalTimer.getTimer().newTimeout(this, interval,
+          TimeUnit.MILLISECONDS);
+    }
   }
   
   @Override
-  public void onUpdateDevice(Device device) {
-    Map<String, Collection<?>> data = new HashMap<>();
-    data.put(KEY_DEVICES, Collections.singletonList(device));
-    sendData(data);
+  public synchronized void onUpdateDevice(Device device) {
+    queue(devices, device);
+    schedule();
+  }
+  
+  private void updatePosition(Position position) {
+    if (positions.put(position.getDeviceId(), serialize(position)) != null) {
+      SUPERSEDED.inc();
+    }
   }
   
   @Override
-  public void onUpdatePosition(Position position) {
-    Map<String, Collection<?>> data = new HashMap<>();
-    data.put(KEY_POSITIONS, Collections.singletonList(position));
-    sendData(data);
+  public synchronized void onUpdatePosition(Position position) {
+    updatePosition(position);
+    schedule();
   }
   
   @Override
-  public void onUpdateEvent(Event event, Position position) {
-    Map<String, Collection<?>> data = new HashMap<>();
-    data.put(KEY_EVENTS, Collections.singletonList(event));
+  public synchronized void onUpdateEvent(Event event, Position position) {
+    queue(events, event);
     if (position != null) {
-      data.put(KEY_POSITIONS, Collections.singletonList(position));
+      updatePosition(position);
+    }
+    schedule();
+  }
+  
+  private static void appendArray(StringBuilder s, String key,
+      Collection<?> values) {
+    if (!values.isEmpty()) {
+      if (s.length() > 1) {
+        s.append(',');
+      }
+      s.append('"').append(key).append("\":[");
+      boolean first = true;
+      for (Object value : values) {
+        if (!first) {
+          s.append(',');
+        }
+        if (value instanceof SerializedPosition) {
+          s.append(((SerializedPosition) value).getJson());
+        } else {
+          JsonConverter.writeValue(s, value);
+        }
+        first = false;
+      }
+      s.append(']');
+    }
+  }
+  
+  private static JsonObject delta(JsonObject previous, JsonObject current,
+      JsonObjectBuilder builder) {
+    for (Map.Entry<String, JsonValue> entry : current.entrySet()) {
+      JsonValue value = previous.get(entry.getKey());
+      if (entry.getKey().equals(KEY_ATTRIBUTES)
+          && value instanceof JsonObject
+          && entry.getValue() instanceof JsonObject) {
+        JsonObject attributes = delta((JsonObject) value,
+            (JsonObject) entry.getValue(), Json.createObjectBuilder());
+        if (!attributes.isEmpty()) {
+          builder.add(KEY_ATTRIBUTES, attributes);
+        }
+      } else if (!entry.getValue().equals(value)) {
+        builder.add(entry.getKey(), entry.getValue());
+      }
     }
-    sendData(data);
+    for (String key : previous.keySet()) {
+      if (!current.containsKey(key)) {
+        builder.addNull(key);
+      }
+    }
+    return builder.build();
+  }
+  
+  private JsonObject delta(long deviceId, JsonObject current) {
+    JsonObject previous = sent.put(deviceId, current);
+    if (previous == null) {
+      return current;
+    }
+    return delta(previous, current, Json.createObjectBuilder().add(
+        KEY_DEVICE_ID, deviceId));
+  }
+  
+  private static void addArray(JsonObjectBuilder builder, String key,
+      Collection<?> values) {
+    if (!values.isEmpty()) {
+      JsonArrayBuilder array = Json.createArrayBuilder();
+      for (Object value : values) {
+        array.add(value instanceof JsonObject ? (JsonObject) value
+            : JsonConverter.objectToJson(value));
+      }
+      builder.add(key, array);
+    }
+  }
+  
+  private void flush() {
+    String text = null;
+    ChannelBuffer binary = null;
+    synchronized (this) {
+      if (protocol == null) {
+        StringBuilder s = new StringBuilder("{");
+        appendArray(s, KEY_DEVICES, devices);
+        appendArray(s, KEY_POSITIONS, positions.values());
+        appendArray(s, KEY_EVENTS, events);
+        text = s.append('}').toString();
+      } else {
+        List<JsonObject> changes = new ArrayList<>(positions.size());
+        for (Map.Entry<Long, SerializedPosition> entry : positions.entrySet()) {
+          changes.add(delta(entry.getKey(), entry.getValue().getObject()));
+        }
+        JsonObjectBuilder frame = Json.createObjectBuilder();
+        addArray(frame, KEY_DEVICES, devices);
+        addArray(frame, KEY_POSITIONS, changes);
+        addArray(frame, KEY_EVENTS, events);
+        if (protocol.equals(PROTOCOL_DELTA_MSGPACK)) {
+          binary = MessagePackWriter.write(frame.build());
+        } else {
+          text = frame.build().toString();
+        }
+      }
+      devices.clear();
+      positions.clear();
+      events.clear();
+    }
+    if (binary != null) {
+      getRemote().sendBytes(binary.toByteBuffer(), this);
+    } else {
+      getRemote().sendString(text, this);
+    }
+  }
+  
+  @Override
+  public void run(Timeout timeout) {
+    synchronized (this) {
+      if (timeout != this.timeout) {
+        return;
+      }
+      this.timeout = null;
+      if (!isConnected()) {
+        return;
+      }
+      writing = true;
+    }
+    flush();
+  }
+  
+  private synchronized void writeComplete() {
+    writing = false;
+    if (!positions.isEmpty() || !devices.isEmpty() || !events.isEmpty()) {
+      schedule();
+    }
+  }
+  
+  @Override
+  public void writeSuccess() {
+    writeComplete();
+  }
+  
+  @Override
+  public void writeFailed(Throwable error) {
+    writeComplete();
   }
   
   private void sendData(Map<String, Collection<?>> data) {
     if (!data.isEmpty() && isConnected()) {
-      JsonObjectBuilder json = Json.createObjectBuilder();
+      StringBuilder s = new StringBuilder("{");
       for (Map.Entry<String, Collection<?>> entry : data.entrySet()) {
-        json.add(entry.getKey(), JsonConverter.arrayToJson(entry.getValue()));
+        appendArray(s, entry.getKey(), entry.getValue());
       }
-      getRemote().sendString(json.build().toString(), null);
+      getRemote().sendString(s.append('}').toString(), null);
     }
   }
 }
@@ -38,7 +38,16 @@ public class AsyncSocketServlet extends WebSocketServlet {
         if (req.getSession() != null) {
           long userId = (Long) req.getSession().getAttribute(
               SessionResource.USER_ID_KEY);
-          return new AsyncSocket(userId);
+          String protocol = null;
+          for (String subProtocol : req.getSubProtocols()) {
+            if (subProtocol.equals(AsyncSocket.PROTOCOL_DELTA)
+                || subProtocol.equals(AsyncSocket.PROTOCOL_DELTA_MSGPACK)) {
+              protocol = subProtocol;
+              resp.setAcceptedSubProtocol(protocol);
+              break;
+            }
+          }
+          return new AsyncSocket(userId, protocol);
         } else {
           return null;
         }
@@ -0,0 +1,110 @@
+package org.traccar.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Writes JSON values in MessagePack format
+ */
+public final class MessagePackWriter {
+  
+  private MessagePackWriter() {
+  }
+  
+  private static void writeLength(ChannelBuffer buf, int length, int fix,
+      int fixLimit, int code16, int code32) {
+    if (length < fixLimit) {
+      buf.writeByte(fix | length);
+    } else if (length < 0x10000) {
+      buf.writeByte(code16);
+      buf.writeShort(length);
+    } else {
+      buf.writeByte(code32);
+      buf.writeInt(length);
+    }
+  }
+  
+  private static void writeLong(ChannelBuffer buf, long value) {
+    if (value >= 0 && value < 0x80) {
+      buf.writeByte((int) value);
+    } else if (value < 0 && value >= -32) {
+      buf.writeByte((int) value);
+    } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+      buf.writeByte(0xd2);
+      buf.writeInt((int) value);
+    } else {
+      buf.writeByte(0xd3);
+      buf.writeLong(value);
+    }
+  }
+  
+  private static void writeString(ChannelBuffer buf, String value) {
+    byte[] data = value.getBytes(StandardCharsets.UTF_8);
+    if (data.length < 32) {
+      buf.writeByte(0xa0 | data.length);
+    } else if (data.length < 0x100) {
+      buf.writeByte(0xd9);
+      buf.writeByte(data.length);
+    } else {
+      writeLength(buf, data.length, 0, 0, 0xda, 0xdb);
+    }
+    buf.writeBytes(data);
+  }
+  
+  public static void write(ChannelBuffer buf, JsonValue value) {
+    switch (value.getValueType()) {
+    case OBJECT:
+      JsonObject object = (JsonObject) value;
+      writeLength(buf, object.size(), 0x80, 16, 0xde, 0xdf);
+      for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+        writeString(buf, entry.getKey());
+        write(buf, entry.getValue());
+      }
+      break;
+    case ARRAY:
+      JsonArray array = (JsonArray) value;
+      writeLength(buf, array.size(), 0x90, 16, 0xdc, 0xdd);
+      for (JsonValue item : array) {
+        write(buf, item);
+      }
+      break;
+    case STRING:
+      writeString(buf, ((JsonString) value).getString());
+      break;
+    case NUMBER:
+      JsonNumber number = (JsonNumber) value;
+      if (number.isIntegral()) {
+        writeLong(buf, number.longValue());
+      } else {
+        buf.writeByte(0xcb);
+        buf.writeDouble(number.doubleValue());
+      }
+      break;
+    case TRUE:
+      buf.writeByte(0xc3);
+      break;
+    case FALSE:
+      buf.writeByte(0xc2);
+      break;
+    default:
+      buf.writeByte(0xc0);
+      break;
+    }
+  }
+  
+  public static ChannelBuffer write(JsonValue value) {
+    ChannelBuffer buf = ChannelBuffers.dynamicBuffer(256);
+    write(buf, value);
+    return buf;
+  }
+  
+}
@@ -0,0 +1,18 @@
+package org.traccar.broker;
+
+import org.jboss.netty.channel.ChannelHandler;
+import org.traccar.BaseDataHandler;
+import org.traccar.Context;
+import org.traccar.model.Position;
+
+@ChannelHandler.Sharable
+public class BrokerDataHandler extends BaseDataHandler {
+  
+  @Override
+  protected Position handlePosition(Position position) {
+    Context.getBrokerProducer().publish(position.getDeviceId(),
+        BrokerRecordEncoder.encode(position));
+    return position;
+  }
+  
+}
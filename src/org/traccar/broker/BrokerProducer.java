@@ -0,0 +1,196 @@
+package org.traccar.broker;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Gauge;
+
+/**
+ * Batching producer in front of a broker sink.
+ *
+ * Records are partitioned by device id, so records of one device keep their
+ * order, and collected per partition until broker.batchSize bytes are reached
+ * or broker.linger milliseconds have passed. A single background thread sends
+ * ready batches in order and retries failed ones every broker.retryDelay
+ * milliseconds. At most broker.bufferSize bytes are held in memory, records
+ * beyond that are dropped.
+ */
+public class BrokerProducer implements Runnable {
+  
+  public static final int DEFAULT_PARTITIONS = 8;
+  
+  private final BrokerSink sink;
+  private final int partitions;
+  private final int batchSize;
+  private final long linger;
+  private final long bufferSize;
+  private final long retryDelay;
+  
+  private final Batch[] open;
+  private final Deque<Batch> ready = new ArrayDeque<>();
+  private long buffered;
+  
+  private final Counter published;
+  private final Counter dropped;
+  private final Counter retries;
+  
+  private volatile boolean running = true;
+  private final Thread thread;
+  
+  private static final class Batch {
+    
+    private final int partition;
+    private final long created = System.currentTimeMillis();
+    private final List<byte[]> records = new ArrayList<>();
+    private int size;
+    
+    private Batch(int partition) {
+      this.partition = partition;
+    }
+    
+  }
+  
+  public BrokerProducer(Config config) throws Exception {
+    String type = config.getString("broker.sink", "file");
+    if (type.equals("file")) {
+      sink = new FileBrokerSink(config);
+    } else {
+      sink = (BrokerSink) Class.forName(type).getConstructor(Config.class)
+          .newInstance(config);
+    }
+    
+    partitions = config.getInteger("broker.partitions", DEFAULT_PARTITIONS);
+    batchSize = config.getInteger("broker.batchSize", 64 * 1024);
+    linger = config.getLong("broker.linger", 100);
+    bufferSize = config.getLong("broker.bufferSize", 32) * 1024 * 1024;
+    retryDelay = config.getLong("broker.retryDelay", 1000);
+    open = new Batch[partitions];
+    
+    published = Context.getMetricsRegistry().counter("broker.published");
+    dropped = Context.getMetricsRegistry().counter("broker.dropped");
+    retries = Context.getMetricsRegistry().counter("broker.retries");
+    Context.getMetricsRegistry().gauge("broker.buffered", new Gauge() {
+      @Override
+      public long getValue() {
+        synchronized (BrokerProducer.this) {
+          return buffered;
+        }
+      }
+    });
+    
+    thread = new Thread(this, "broker-producer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Queue record without blocking, record is dropped if the buffer is full
+   */
+  public synchronized void publish(long deviceId, byte[] record) {
+    if (!running || buffered + record.length > bufferSize) {
+      dropped.inc();
+      return;
+    }
+    int partition = (int) ((deviceId & Long.MAX_VALUE) % partitions);
+    Batch batch = open[partition];
+    if (batch == null) {
+      batch = new Batch(partition);
+      open[partition] = batch;
+    }
+    batch.records.add(record);
+    batch.size += record.length;
+    buffered += record.length;
+    if (batch.size >= batchSize) {
+      open[partition] = null;
+      ready.add(batch);
+      notifyAll();
+    }
+  }
+  
+  private synchronized List<Batch> take() throws InterruptedException {
+    while (true) {
+      long time = System.currentTimeMillis();
+      long deadline = Long.MAX_VALUE;
+      for (int i = 0; i < partitions; i++) {
+        Batch batch = open[i];
+        if (batch != null) {
+          if (!running || time - batch.created >= linger) {
+            open[i] = null;
+            ready.add(batch);
+          } else {
+            deadline = Math.min(deadline, batch.created + linger);
+          }
+        }
+      }
+      if (!ready.isEmpty() || !running) {
+        List<Batch> batches = new ArrayList<>(ready);
+        ready.clear();
+        return batches;
+      }
+      wait(deadline == Long.MAX_VALUE ? 1000 : deadline - time);
+    }
+  }
+  
+  private void send(Batch batch) throws InterruptedException {
+    while (true) {
+      try {
+        sink.send(batch.partition, batch.records);
+        published.inc(batch.records.size());
+        return;
+      } catch (IOException error) {
+        Log.warning(error);
+        if (!running) {
+          dropped.inc(batch.records.size());
+          return;
+        }
+        retries.inc();
+        Thread.sleep(retryDelay);
+      }
+    }
+  }
+  
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        List<Batch> batches = take();
+        if (batches.isEmpty()) {
+          break;
+        }
+        for (Batch batch : batches) {
+          send(batch);
+          synchronized (this) {
+            buffered -= batch.size;
+          }
+        }
+      }
+    } catch (InterruptedException error) {
+      Log.warning(error);
+    }
+    try {
+      sink.close();
+    } catch (IOException error) {
+      Log.warning(error);
+    }
+  }
+  
+  public void close() {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException error) {
+      Log.warning(error);
+    }
+  }
+  
+}
@@ -0,0 +1,132 @@
+package org.traccar.broker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.traccar.model.Event;
+import org.traccar.model.Position;
+
+/**
+ * Compact binary form of published records.
+ *
+ * Record starts with type and version bytes. Integers are written as
+ * variable-length values (7 bits per byte, signed values zigzag encoded),
+ * times as milliseconds, strings as length plus one (zero for null) and UTF-8
+ * bytes. Position: id, device id, protocol, server, device and fix time, flags
+ * (valid 1, outdated 2), latitude and longitude in 1e-7 degrees (int),
+ * altitude, speed in knots and course (float), address, attributes. Event: id,
+ * device id, type, server time, position id, geofence id, attributes.
+ * Attributes are a count followed by key, value tag and value.
+ */
+public final class BrokerRecordEncoder {
+  
+  public static final int TYPE_POSITION = 1;
+  public static final int TYPE_EVENT = 2;
+  public static final int VERSION = 1;
+  
+  public static final int TAG_NULL = 0;
+  public static final int TAG_FALSE = 1;
+  public static final int TAG_TRUE = 2;
+  public static final int TAG_LONG = 3;
+  public static final int TAG_DOUBLE = 4;
+  public static final int TAG_STRING = 5;
+  
+  private BrokerRecordEncoder() {
+  }
+  
+  private static void writeVarLong(ChannelBuffer buf, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buf.writeByte((int) value);
+  }
+  
+  private static void writeSignedVarLong(ChannelBuffer buf, long value) {
+    writeVarLong(buf, (value << 1) ^ (value >> 63));
+  }
+  
+  private static void writeTime(ChannelBuffer buf, Date time) {
+    writeVarLong(buf, time != null ? time.getTime() : 0);
+  }
+  
+  private static void writeString(ChannelBuffer buf, String value) {
+    if (value == null) {
+      writeVarLong(buf, 0);
+    } else {
+      byte[] data = value.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(buf, data.length + 1);
+      buf.writeBytes(data);
+    }
+  }
+  
+  private static void writeAttributes(ChannelBuffer buf,
+      Map<String, Object> attributes) {
+    writeVarLong(buf, attributes.size());
+    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+      writeString(buf, entry.getKey());
+      Object value = entry.getValue();
+      if (value == null) {
+        buf.writeByte(TAG_NULL);
+      } else if (value instanceof Boolean) {
+        buf.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+      } else if (value instanceof Integer || value instanceof Long
+          || value instanceof Short || value instanceof Byte) {
+        buf.writeByte(TAG_LONG);
+        writeSignedVarLong(buf, ((Number) value).longValue());
+      } else if (value instanceof Number) {
+        buf.writeByte(TAG_DOUBLE);
+        buf.writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+      } else {
+        buf.writeByte(TAG_STRING);
+        writeString(buf, value.toString());
+      }
+    }
+  }
+  
+  private static byte[] toArray(ChannelBuffer buf) {
+    byte[] result = new byte[buf.readableBytes()];
+    buf.readBytes(result);
+    return result;
+  }
+  
+  public static byte[] encode(Position position) {
+    ChannelBuffer buf = ChannelBuffers.dynamicBuffer(128);
+    buf.writeByte(TYPE_POSITION);
+    buf.writeByte(VERSION);
+    writeVarLong(buf, position.getId());
+    writeVarLong(buf, position.getDeviceId());
+    writeString(buf, position.getProtocol());
+    writeTime(buf, position.getServerTime());
+    writeTime(buf, position.getDeviceTime());
+    writeTime(buf, position.getFixTime());
+    buf.writeByte((position.getValid() ? 1 : 0)
+        | (position.getOutdated() ? 2 : 0));
+    buf.writeInt((int) Math.round(position.getLatitude() * 10000000));
+    buf.writeInt((int) Math.round(position.getLongitude() * 10000000));
+    buf.writeFloat((float) position.getAltitude());
+    buf.writeFloat((float) position.getSpeed());
+    buf.writeFloat((float) position.getCourse());
+    writeString(buf, position.getAddress());
+    writeAttributes(buf, position.getAttributes());
+    return toArray(buf);
+  }
+  
+  public static byte[] encode(Event event) {
+    ChannelBuffer buf = ChannelBuffers.dynamicBuffer(64);
+    buf.writeByte(TYPE_EVENT);
+    buf.writeByte(VERSION);
+    writeVarLong(buf, event.getId());
+    writeVarLong(buf, event.getDeviceId());
+    writeString(buf, event.getType());
+    writeTime(buf, event.getServerTime());
+    writeVarLong(buf, event.getPositionId());
+    writeVarLong(buf, event.getGeofenceId());
+    writeAttributes(buf, event.getAttributes());
+    return toArray(buf);
+  }
+  
+}
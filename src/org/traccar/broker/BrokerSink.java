@@ -0,0 +1,19 @@
+package org.traccar.broker;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of published records, implementations are created with the
+ * server configuration and called from the single producer thread
+ */
+public interface BrokerSink {
+  
+  /**
+   * Store records of one partition in order, batch is retried on failure
+   */
+  void send(int partition, List<byte[]> records) throws IOException;
+  
+  void close() throws IOException;
+  
+}
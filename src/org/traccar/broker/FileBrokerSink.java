@@ -0,0 +1,81 @@
+package org.traccar.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.traccar.Config;
+
+/**
+ * Local stand-in for a broker, appends records of each partition to
+ * partition-NNN.log in broker.file.directory, every record prefixed with its
+ * length (int)
+ */
+public class FileBrokerSink implements BrokerSink {
+  
+  private final File directory;
+  private final boolean sync;
+  private final FileChannel[] channels;
+  
+  public FileBrokerSink(Config config) throws IOException {
+    directory = new File(config.getString("broker.file.directory"));
+    sync = config.getBoolean("broker.file.sync");
+    channels = new FileChannel[config.getInteger("broker.partitions",
+        BrokerProducer.DEFAULT_PARTITIONS)];
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory);
+    }
+  }
+  
+  private FileChannel channel(int partition) throws IOException {
+    if (channels[partition] == null) {
+      File file = new File(directory, String.format("partition-%03d.log",
+          partition));
+      channels[partition] = FileChannel.open(file.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.APPEND);
+    }
+    return channels[partition];
+  }
+  
+  @Override
+  public void send(int partition, List<byte[]> records) throws IOException {
+    int length = 0;
+    for (byte[] record : records) {
+      length += 4 + record.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (byte[] record : records) {
+      buffer.putInt(record.length).put(record);
+    }
+    buffer.flip();
+    
+    FileChannel channel = channel(partition);
+    long size = channel.size();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException error) {
+      // drop the partial batch so that a retry keeps the framing intact
+      channel.truncate(size);
+      throw error;
+    }
+    if (sync) {
+      channel.force(false);
+    }
+  }
+  
+  @Override
+  public void close() throws IOException {
+    for (FileChannel channel : channels) {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+  
+}
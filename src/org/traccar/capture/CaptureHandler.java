@@ -0,0 +1,157 @@
+package org.traccar.capture;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelLocal;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.socket.DatagramChannel;
+
+/**
+ * Copies raw inbound and outbound frames to the capture writer.
+ *
+ * With a device filter, frames of a stream channel are held back until the
+ * decoder identifies the device and are then written or discarded. Datagram
+ * channels carry many devices and are not captured when a device filter is
+ * set.
+ */
+@ChannelHandler.Sharable
+public class CaptureHandler extends SimpleChannelHandler {
+  
+  private static final int MAX_PENDING = 16;
+  
+  private static final ChannelLocal<ChannelState> STATES = new ChannelLocal<>();
+  
+  private final CaptureWriter writer;
+  private final String protocol;
+  private final Set<Integer> ports;
+  private final Set<String> devices;
+  
+  private static final class ChannelState {
+    
+    private final CaptureWriter writer;
+    private final Set<String> devices;
+    private final List<CaptureRecord> pending = new ArrayList<>();
+    private Boolean selected;
+    
+    private ChannelState(CaptureWriter writer, Set<String> devices) {
+      this.writer = writer;
+      this.devices = devices;
+    }
+    
+    private synchronized void write(CaptureRecord record) {
+      if (selected == null) {
+        if (pending.size() < MAX_PENDING) {
+          pending.add(record);
+        }
+      } else if (selected) {
+        writer.write(record);
+      }
+    }
+    
+    private synchronized void identified(String uniqueId) {
+      selected = devices.contains(uniqueId);
+      if (selected) {
+        for (CaptureRecord record : pending) {
+          writer.write(record);
+        }
+      }
+      pending.clear();
+    }
+    
+  }
+  
+  /**
+   * @param ports comma separated local ports to capture, all if null
+   * @param devices comma separated device identifiers to capture, all if null
+   */
+  public CaptureHandler(CaptureWriter writer, String protocol, String ports,
+      String devices) {
+    this.writer = writer;
+    this.protocol = protocol;
+    this.ports = new HashSet<>();
+    this.devices = new HashSet<>();
+    if (ports != null) {
+      for (String port : ports.split(",")) {
+        this.ports.add(Integer.parseInt(port.trim()));
+      }
+    }
+    if (devices != null) {
+      for (String device : devices.split(",")) {
+        this.devices.add(device.trim());
+      }
+    }
+  }
+  
+  /**
+   * Called by decoders once channel device is known
+   */
+  public static void identified(Channel channel, String uniqueId) {
+    ChannelState state = STATES.get(channel);
+    if (state != null) {
+      state.identified(uniqueId);
+    }
+  }
+  
+  private void capture(Channel channel, int direction, Object message) {
+    if (!(message instanceof ChannelBuffer)) {
+      return;
+    }
+    
+    int port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    if (!ports.isEmpty() && !ports.contains(port)) {
+      return;
+    }
+    
+    ChannelBuffer buffer = (ChannelBuffer) message;
+    byte[] data = new byte[buffer.readableBytes()];
+    buffer.getBytes(buffer.readerIndex(), data);
+    CaptureRecord record = new CaptureRecord(System.currentTimeMillis(),
+        channel.getId(), direction, port, protocol, data);
+    
+    if (devices.isEmpty()) {
+      writer.write(record);
+    } else if (!(channel instanceof DatagramChannel)) {
+      ChannelState state = STATES.get(channel);
+      if (state == null) {
+        state = new ChannelState(writer, devices);
+        ChannelState existing = STATES.setIfAbsent(channel, state);
+        if (existing != null) {
+          state = existing;
+        }
+      }
+      state.write(record);
+    }
+  }
+  
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+      throws Exception {
+    capture(e.getChannel(), CaptureRecord.INBOUND, e.getMessage());
+    super.messageReceived(ctx, e);
+  }
+  
+  @Override
+  public void writeRequested(ChannelHandlerContext ctx, MessageEvent e)
+      throws Exception {
+    capture(e.getChannel(), CaptureRecord.OUTBOUND, e.getMessage());
+    super.writeRequested(ctx, e);
+  }
+  
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e)
+      throws Exception {
+    STATES.remove(e.getChannel());
+    super.channelClosed(ctx, e);
+  }
+  
+}
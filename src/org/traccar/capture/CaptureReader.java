@@ -0,0 +1,62 @@
+package org.traccar.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sequential reader for files produced by CaptureWriter
+ */
+public class CaptureReader implements Closeable {
+  
+  private final DataInputStream input;
+  
+  public CaptureReader(String file) throws IOException {
+    input = new DataInputStream(new BufferedInputStream(new FileInputStream(
+        file)));
+    
+    byte[] magic = new byte[CaptureWriter.MAGIC.length];
+    input.readFully(magic);
+    int version = input.readUnsignedByte();
+    if (!Arrays.equals(magic, CaptureWriter.MAGIC)
+        || version != CaptureWriter.VERSION) {
+      input.close();
+      throw new IOException("Unsupported capture file " + file);
+    }
+  }
+  
+  /**
+   * Next record or null at the end of file
+   */
+  public CaptureRecord read() throws IOException {
+    int length;
+    try {
+      length = input.readInt();
+    } catch (EOFException error) {
+      return null;
+    }
+    
+    long time = input.readLong();
+    int channelId = input.readInt();
+    int direction = input.readUnsignedByte();
+    int port = input.readUnsignedShort();
+    byte[] protocol = new byte[input.readUnsignedByte()];
+    input.readFully(protocol);
+    byte[] data = new byte[length - 8 - 4 - 1 - 2 - 1 - protocol.length];
+    input.readFully(data);
+    
+    return new CaptureRecord(time, channelId, direction, port, new String(
+        protocol, StandardCharsets.US_ASCII), data);
+  }
+  
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+  
+}
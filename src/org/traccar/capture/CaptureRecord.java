@@ -0,0 +1,52 @@
+package org.traccar.capture;
+
+/**
+ * Raw frame as seen on the wire by a tracker server channel
+ */
+public class CaptureRecord {
+  
+  public static final int INBOUND = 0;
+  public static final int OUTBOUND = 1;
+  
+  private final long time;
+  private final int channelId;
+  private final int direction;
+  private final int port;
+  private final String protocol;
+  private final byte[] data;
+  
+  public CaptureRecord(long time, int channelId, int direction, int port,
+      String protocol, byte[] data) {
+    this.time = time;
+    this.channelId = channelId;
+    this.direction = direction;
+    this.port = port;
+    this.protocol = protocol;
+    this.data = data;
+  }
+  
+  public long getTime() {
+    return time;
+  }
+  
+  public int getChannelId() {
+    return channelId;
+  }
+  
+  public int getDirection() {
+    return direction;
+  }
+  
+  public int getPort() {
+    return port;
+  }
+  
+  public String getProtocol() {
+    return protocol;
+  }
+  
+  public byte[] getData() {
+    return data;
+  }
+  
+}
@@ -0,0 +1,169 @@
+package org.traccar.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+
+/**
+ * Append-only binary capture file written from a background thread.
+ *
+ * File starts with "TCAP" and a version byte, followed by records: length of
+ * the rest of the record (int), time in milliseconds (long), channel id (int),
+ * direction (byte), local port (unsigned short), protocol name (byte length and
+ * ASCII) and raw frame bytes. Files are rotated when they reach the size limit.
+ */
+public class CaptureWriter implements Runnable {
+  
+  public static final byte[] MAGIC = { 'T', 'C', 'A', 'P' };
+  public static final int VERSION = 1;
+  
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int HEADER_LENGTH = 8 + 4 + 1 + 2 + 1;
+  
+  private final File file;
+  private final long maxSize;
+  private final BlockingQueue<CaptureRecord> queue;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final Counter dropped;
+  
+  private FileChannel fileChannel;
+  private long size;
+  
+  private volatile boolean running = true;
+  private final Thread thread;
+  
+  public CaptureWriter(String path, long maxSize, int queueSize)
+      throws IOException {
+    this.file = new File(path);
+    this.maxSize = maxSize;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    dropped = Context.getMetricsRegistry().counter("capture.dropped");
+    
+    open();
+    
+    thread = new Thread(this, "capture-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Queue record without blocking, record is dropped if writer falls behind
+   */
+  public void write(CaptureRecord record) {
+    if (!queue.offer(record)) {
+      dropped.inc();
+    }
+  }
+  
+  private void open() throws IOException {
+    fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    size = fileChannel.size();
+    if (size == 0) {
+      buffer.put(MAGIC).put((byte) VERSION);
+      size += MAGIC.length + 1;
+    }
+  }
+  
+  private void rotate() throws IOException {
+    flush();
+    fileChannel.close();
+    String suffix = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+    File target = new File(file.getPath() + "." + suffix);
+    for (int i = 1; target.exists(); i++) {
+      target = new File(file.getPath() + "." + suffix + "-" + i);
+    }
+    if (!file.renameTo(target)) {
+      Log.warning("Capture file rotation failed - " + target);
+    }
+    open();
+  }
+  
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      fileChannel.write(buffer);
+    }
+    buffer.clear();
+  }
+  
+  private void append(CaptureRecord record) throws IOException {
+    byte[] protocol = record.getProtocol().getBytes(StandardCharsets.US_ASCII);
+    byte[] data = record.getData();
+    int length = HEADER_LENGTH + protocol.length + data.length;
+    
+    if (maxSize > 0 && size + 4 + length > maxSize
+        && size > MAGIC.length + 1) {
+      rotate();
+    }
+    
+    if (buffer.remaining() < 4 + HEADER_LENGTH + protocol.length) {
+      flush();
+    }
+    buffer.putInt(length);
+    buffer.putLong(record.getTime());
+    buffer.putInt(record.getChannelId());
+    buffer.put((byte) record.getDirection());
+    buffer.putShort((short) record.getPort());
+    buffer.put((byte) protocol.length);
+    buffer.put(protocol);
+    
+    int offset = 0;
+    while (offset < data.length) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int chunk = Math.min(buffer.remaining(), data.length - offset);
+      buffer.put(data, offset, chunk);
+      offset += chunk;
+    }
+    
+    size += 4 + length;
+  }
+  
+  @Override
+  public void run() {
+    while (running || !queue.isEmpty()) {
+      try {
+        CaptureRecord record = queue.poll(1, TimeUnit.SECONDS);
+        while (record != null) {
+          append(record);
+          record = queue.poll();
+        }
+        flush();
+      } catch (InterruptedException error) {
+        running = false;
+      } catch (IOException error) {
+        Log.warning(error);
+      }
+    }
+    try {
+      flush();
+      fileChannel.close();
+    } catch (IOException error) {
+      Log.warning(error);
+    }
+  }
+  
+  public void close() {
+    running = false;
+    try {
+      thread.join();
+    } catch (InterruptedException error) {
+      Log.warning(error);
+    }
+  }
+  
+}
@@ -0,0 +1,91 @@
+package org.traccar.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.model.Position;
+
+/**
+ * Writes addresses resolved after a position was passed on, from a background
+ * thread. Positions that are not stored yet are retried for a while, their
+ * address is usually picked up by the insert itself.
+ */
+public class AddressUpdater implements Runnable {
+  
+  private static final long STORE_TIMEOUT = 30 * 1000;
+  
+  private static final class Update {
+    
+    private final Position position;
+    private final long time = System.currentTimeMillis();
+    
+    private Update(Position position) {
+      this.position = position;
+    }
+    
+  }
+  
+  private final DataManager dataManager;
+  private final BlockingQueue<Update> queue;
+  private final List<Update> deferred = new ArrayList<>();
+  private final Counter dropped;
+  
+  public AddressUpdater(DataManager dataManager, int queueSize) {
+    this.dataManager = dataManager;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    dropped = Context.getMetricsRegistry().counter("geocoder.update.dropped");
+    
+    Thread thread = new Thread(this, "address-updater");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Queue update without blocking, update is dropped if writer falls behind
+   */
+  public void update(Position position) {
+    if (!queue.offer(new Update(position))) {
+      dropped.inc();
+    }
+  }
+  
+  private void store(Update update) {
+    if (update.position.getId() != 0) {
+      try {
+        dataManager.updatePositionAddress(update.position);
+      } catch (SQLException error) {
+        Log.warning(error);
+      }
+    } else if (System.currentTimeMillis() - update.time < STORE_TIMEOUT) {
+      deferred.add(update);
+    }
+  }
+  
+  @Override
+  public void run() {
+    while (true) {
+      try {
+        Update update = queue.poll(1, TimeUnit.SECONDS);
+        List<Update> retry = new ArrayList<>(deferred);
+        deferred.clear();
+        for (Update deferredUpdate : retry) {
+          store(deferredUpdate);
+        }
+        while (update != null) {
+          store(update);
+          update = queue.poll();
+        }
+      } catch (InterruptedException error) {
+        return;
+      }
+    }
+  }
+  
+}
@@ -129,6 +129,12 @@ public class DataManager implements IdentityManager {
           "database.checkConnection", "SELECT 1"));
       hikariConfig.setIdleTimeout(600000);
       
+      // pool state (active, idle, waiting threads) under com.zaxxer.hikari
+      if (config.getBoolean("metrics.jmx")) {
+        hikariConfig.setPoolName("traccar");
+        hikariConfig.setRegisterMbeans(true);
+      }
+      
       int maxPoolSize = config.getInteger("database.maxPoolSize");
       
       if (maxPoolSize != 0) {
@@ -503,6 +509,12 @@ public class DataManager implements IdentityManager {
         .setDate("now", new Date()).setObject(position).executeUpdate());
   }
   
+  public void updatePositionAddress(Position position) throws SQLException {
+    QueryBuilder.create(dataSource, getQuery("database.updatePositionAddress"))
+        .setLong("id", position.getId())
+        .setString("address", position.getAddress()).executeUpdate();
+  }
+  
   public void updateLatestPosition(Position position) throws SQLException {
     QueryBuilder.create(dataSource, getQuery("database.updateLatestPosition"))
         .setDate("now", new Date()).setObject(position).executeUpdate();
@@ -40,10 +40,17 @@ import javax.sql.DataSource;
 
 import org.traccar.Context;
 import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Histogram;
 import org.traccar.model.MiscFormatter;
 
 public final class QueryBuilder {
   
+  private static final Counter PENDING = Context.getMetricsRegistry()
+      .counter("database.pending");
+  private static final Histogram CONNECTION = Context.getMetricsRegistry()
+      .histogram("database.connection");
+  
   private final Map<String, List<Integer>> indexMap = new HashMap<>();
   private Connection connection;
   private PreparedStatement statement;
@@ -55,7 +62,14 @@ public final class QueryBuilder {
     this.query = query;
     this.returnGeneratedKeys = returnGeneratedKeys;
     if (query != null) {
-      connection = dataSource.getConnection();
+      long start = System.nanoTime();
+      PENDING.inc();
+      try {
+        connection = dataSource.getConnection();
+      } finally {
+        PENDING.dec();
+        CONNECTION.time(start);
+      }
       String parsedQuery = parse(query.trim(), indexMap);
       try {
         if (returnGeneratedKeys) {
@@ -0,0 +1,21 @@
+package org.traccar.forward;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Finds command text in a message from the forwarding remote, messages
+ * without command are not relayed to the device. Replies acknowledging
+ * forwarded frames are counted so the spool only confirms frames the remote
+ * has answered.
+ */
+public interface CommandReader {
+  
+  String readCommandText(ChannelBuffer buffer);
+  
+  /**
+   * Number of forwarded frames acknowledged by the message, without moving
+   * the reader index
+   */
+  int readAcknowledgements(ChannelBuffer buffer);
+  
+}
@@ -0,0 +1,337 @@
+package org.traccar.forward;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.MetricsRegistry;
+
+/**
+ * Upstream channel that survives remote disconnects.
+ *
+ * Frames written while the channel is connecting or while its write buffer
+ * is above the high-water mark are kept up to the pending limit. Lost connections are re-established with exponential backoff and
+ * jitter. Writes never block or suspend the device channel. Frames the
+ * upstream can not take are appended to the destination spool when one is
+ * configured and dropped otherwise. Once a session starts spooling, the spool
+ * delivers the rest of its frames in order. With a reply reader, frames
+ * written by the spool complete once the remote has answered them.
+ */
+public class ForwarderConnection {
+  
+  public interface Listener {
+    
+    void messageReceived(ChannelBuffer buffer);
+    
+  }
+  
+  private final ForwarderConnectionManager manager;
+  private final String name;
+  private final InetSocketAddress remoteAddress;
+  private final boolean connectionless;
+  private final boolean replayFirst;
+  private final Listener listener;
+  private final ForwarderSpool spool;
+  private final long session;
+  private final CommandReader replyReader;
+  
+  private final Counter backlog;
+  private final Counter dropped;
+  private final Counter reconnects;
+  
+  private final Queue<ChannelBuffer> pending = new ArrayDeque<>();
+  private int pendingBytes;
+  
+  // one per frame written, answered by the remote in order
+  private final Queue<DefaultChannelFuture> unconfirmed = new ArrayDeque<>();
+  
+  private ChannelBuffer first;
+  private Channel channel;
+  private boolean ready;
+  private boolean reconnect;
+  private boolean failed;
+  private boolean sentFirst;
+  private boolean spooling;
+  private boolean closed;
+  private long backoff;
+  
+  ForwarderConnection(ForwarderConnectionManager manager, String name,
+      String host, int port, boolean connectionless, boolean replayFirst,
+      Listener listener, ForwarderSpool spool, long session,
+      CommandReader replyReader) {
+    this.manager = manager;
+    this.name = name;
+    this.remoteAddress = new InetSocketAddress(host, port);
+    this.connectionless = connectionless;
+    this.replayFirst = replayFirst;
+    this.listener = listener;
+    this.spool = spool;
+    this.session = session;
+    this.replyReader = replyReader;
+    
+    MetricsRegistry metrics = Context.getMetricsRegistry();
+    backlog = metrics.counter(name + ".forward.backlog");
+    dropped = metrics.counter(name + ".forward.dropped");
+    reconnects = metrics.counter(name + ".forward.reconnects");
+    
+    backoff = manager.getReconnectMin();
+  }
+  
+  public boolean isConnectionless() {
+    return connectionless;
+  }
+  
+  public synchronized boolean isReady() {
+    return ready;
+  }
+  
+  synchronized void connect() {
+    if (closed || channel != null) {
+      return;
+    }
+    channel = manager.newChannel(this);
+    channel.connect(remoteAddress);
+  }
+  
+  synchronized void connected(Channel channel) {
+    if (closed || spooling && session != ForwarderSpool.SHARED) {
+      channel.close();
+      return;
+    }
+    this.channel = channel;
+    ready = true;
+    failed = false;
+    backoff = manager.getReconnectMin();
+    Log.debug("{} forward connected", this);
+    
+    if (reconnect && first != null) {
+      // upstream has to see session start again
+      send(first.duplicate());
+    }
+    reconnect = true;
+    flushPending(false);
+  }
+  
+  private void flushPending(boolean writableOnly) {
+    while (!pending.isEmpty() && (!writableOnly || channel.isWritable())) {
+      ChannelBuffer buffer = pending.poll();
+      pendingBytes -= buffer.readableBytes();
+      send(buffer);
+    }
+  }
+  
+  /**
+   * Write buffer of the channel dropped below the low-water mark
+   */
+  synchronized void writable(Channel channel) {
+    if (channel == this.channel && ready) {
+      flushPending(true);
+    }
+  }
+  
+  synchronized void disconnected(Channel channel) {
+    if (channel != this.channel) {
+      return;
+    }
+    this.channel = null;
+    ready = false;
+    failed = true;
+    while (!unconfirmed.isEmpty()) {
+      unconfirmed.poll().setFailure(new ClosedChannelException());
+    }
+    if (closed || spooling && session != ForwarderSpool.SHARED) {
+      // spool owns delivery of this session now
+      return;
+    }
+    
+    long delay = backoff
+        + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    backoff = Math.min(backoff * 2, manager.getReconnectMax());
+    reconnects.inc();
+    Log.debug("{} forward disconnected, reconnect in {} ms", this, delay);
+    
+    manager.schedule(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        connect();
+      }
+    }, delay);
+  }
+  
+  void received(ChannelBuffer buffer) {
+    if (replyReader != null) {
+      confirm(replyReader.readAcknowledgements(buffer));
+    }
+    if (listener != null) {
+      listener.messageReceived(buffer);
+    }
+  }
+  
+  private synchronized void confirm(int count) {
+    while (count-- > 0 && !unconfirmed.isEmpty()) {
+      unconfirmed.poll().setSuccess();
+    }
+  }
+  
+  /**
+   * Reconnect when the remote stopped answering, unanswered frames fail
+   */
+  synchronized void resync() {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+  
+  private ChannelFuture send(ChannelBuffer buffer) {
+    final int length = buffer.readableBytes();
+    backlog.inc(length);
+    sentFirst = true;
+    ChannelFuture future = channel.write(buffer);
+    final DefaultChannelFuture reply;
+    if (replyReader != null) {
+      reply = new DefaultChannelFuture(channel, false);
+      unconfirmed.add(reply);
+    } else {
+      reply = null;
+    }
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture completed) {
+        backlog.inc(-length);
+        if (reply != null && !completed.isSuccess()) {
+          reply.setFailure(completed.getCause());
+        }
+      }
+    });
+    return reply != null ? reply : future;
+  }
+  
+  /**
+   * Write frame from the spool, null if the channel can not take it now
+   */
+  synchronized ChannelFuture transmit(ChannelBuffer buffer) {
+    if (closed || !ready || !channel.isWritable()) {
+      return null;
+    }
+    if (replayFirst && first == null) {
+      first = buffer.duplicate();
+    }
+    return send(buffer);
+  }
+  
+  private void startSpooling() {
+    spooling = true;
+    if (session != ForwarderSpool.SHARED) {
+      spool.register(session, listener);
+      if (sentFirst && first != null) {
+        spool.append(session, first.duplicate());
+      }
+      if (channel != null) {
+        channel.close();
+      }
+    }
+    while (!pending.isEmpty()) {
+      ChannelBuffer buffer = pending.poll();
+      if (!spool.append(session, buffer)) {
+        dropped.inc();
+      }
+    }
+    pendingBytes = 0;
+  }
+  
+  /**
+   * Forward frame, returns false if the frame was dropped
+   */
+  public synchronized boolean write(ChannelBuffer buffer) {
+    if (closed) {
+      return false;
+    }
+    if (replayFirst && first == null) {
+      first = buffer.duplicate();
+    }
+    
+    if (spooling && session == ForwarderSpool.SHARED && spool.isDrained()) {
+      spooling = false;
+    }
+    
+    if (!spooling) {
+      // frames waiting for the write buffer to drain keep their order
+      if (ready && !pending.isEmpty()) {
+        flushPending(true);
+      }
+      if (ready && pending.isEmpty() && channel.isWritable()) {
+        send(buffer);
+        return true;
+      }
+      int length = buffer.readableBytes();
+      if ((ready || !failed || spool == null)
+          && pendingBytes + length <= manager.getMaxPending()) {
+        pending.add(buffer);
+        pendingBytes += length;
+        return true;
+      }
+      if (spool == null) {
+        dropped.inc();
+        return false;
+      }
+      startSpooling();
+    }
+    
+    if (!spool.append(session, buffer)) {
+      dropped.inc();
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Flush written frames and close upstream channel, frames still waiting for
+   * the connect go to the spool or are counted as dropped
+   */
+  public synchronized void close() {
+    closed = true;
+    if (ready) {
+      flushPending(false);
+    }
+    if (!pending.isEmpty()) {
+      if (spool != null && !spooling) {
+        startSpooling();
+      } else {
+        dropped.inc(pending.size());
+        pending.clear();
+        pendingBytes = 0;
+      }
+    }
+    if (spooling) {
+      spool.unregister(session);
+    }
+    if (channel != null) {
+      if (ready) {
+        channel.write(ChannelBuffers.EMPTY_BUFFER).addListener(
+            ChannelFutureListener.CLOSE);
+      } else {
+        channel.close();
+      }
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "[" + name + " " + remoteAddress.getHostString() + ":"
+        + remoteAddress.getPort() + "]";
+  }
+  
+}
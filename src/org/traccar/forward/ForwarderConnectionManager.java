@@ -0,0 +1,302 @@
+package org.traccar.forward;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.Config;
+import org.traccar.GlobalChannelFactory;
+import org.traccar.GlobalTimer;
+import org.traccar.helper.Log;
+
+/**
+ * Opens upstream connections for protocol forwarders.
+ *
+ * All connections share one set of client options and the global channel
+ * factories. Dedicated connections follow a device session, shared
+ * connections carry every device of a protocol over one upstream channel and
+ * live until shutdown. With forward.spool.enable every destination gets a
+ * spool directory, spools left by a previous run are drained on startup.
+ * Sessions that fail for forward.spool.retryLimit seconds are given up, and
+ * forward.spool.sync forces every spool write to disk.
+ */
+public class ForwarderConnectionManager {
+  
+  private final ClientBootstrap bootstrap = new ClientBootstrap();
+  
+  private final long reconnectMin;
+  private final long reconnectMax;
+  private final int maxPending;
+  
+  private final File spoolDirectory;
+  private final long spoolSegmentSize;
+  private final long spoolMaxSize;
+  private final long spoolMaxAge;
+  private final long spoolRetryLimit;
+  private final boolean spoolSync;
+  
+  private final ConcurrentMap<String, ForwarderConnection> shared = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ForwarderSpool> spools = new ConcurrentHashMap<>();
+  
+  private final AtomicLong sessions = new AtomicLong(
+      System.currentTimeMillis() * 1000);
+  
+  public ForwarderConnectionManager(Config config) {
+    reconnectMin = config.getLong("forward.reconnectMin", 1000);
+    reconnectMax = config.getLong("forward.reconnectMax", 60000);
+    maxPending = config.getInteger("forward.maxPending", 64 * 1024);
+    
+    bootstrap.setOption("tcpNoDelay", true);
+    bootstrap.setOption("keepAlive", true);
+    bootstrap.setOption("connectTimeoutMillis",
+        config.getInteger("forward.connectTimeout", 10000));
+    
+    if (config.getBoolean("forward.spool.enable")) {
+      spoolDirectory = new File(config.getString("forward.spool.directory",
+          "spool"));
+      // sizes in MB, age in seconds
+      spoolSegmentSize = config.getLong("forward.spool.segmentSize", 4)
+          * 1024 * 1024;
+      spoolMaxSize = config.getLong("forward.spool.maxSize", 1024)
+          * 1024 * 1024;
+      spoolMaxAge = config.getLong("forward.spool.maxAge", 7 * 24 * 3600)
+          * 1000;
+      spoolRetryLimit = config.getLong("forward.spool.retryLimit", 3600)
+          * 1000;
+      spoolSync = config.getBoolean("forward.spool.sync");
+    } else {
+      spoolDirectory = null;
+      spoolSegmentSize = 0;
+      spoolMaxSize = 0;
+      spoolMaxAge = 0;
+      spoolRetryLimit = 0;
+      spoolSync = false;
+    }
+  }
+  
+  /**
+   * Resume spools left by a previous run
+   */
+  public void recover() {
+    if (spoolDirectory == null) {
+      return;
+    }
+    File[] directories = spoolDirectory.listFiles();
+    if (directories == null) {
+      return;
+    }
+    for (File directory : directories) {
+      String[] key = parseKey(directory.getName());
+      if (directory.isDirectory() && key != null) {
+        getSpool(key[0], key[1], Integer.parseInt(key[2]),
+            "udp".equals(key[3]));
+      }
+    }
+  }
+  
+  private static String key(String name, String host, int port,
+      boolean connectionless) {
+    return name + "_" + host + "_" + port + (connectionless ? "_udp" : "_tcp");
+  }
+  
+  private static String[] parseKey(String key) {
+    int nameEnd = key.indexOf('_');
+    int transportStart = key.lastIndexOf('_');
+    int portStart = key.lastIndexOf('_', transportStart - 1);
+    if (nameEnd < 0 || portStart <= nameEnd) {
+      return null;
+    }
+    try {
+      Integer.parseInt(key.substring(portStart + 1, transportStart));
+    } catch (NumberFormatException error) {
+      return null;
+    }
+    return new String[] {
+        key.substring(0, nameEnd), key.substring(nameEnd + 1, portStart),
+        key.substring(portStart + 1, transportStart),
+        key.substring(transportStart + 1) };
+  }
+  
+  private ForwarderSpool getSpool(String name, String host, int port,
+      boolean connectionless) {
+    if (spoolDirectory == null) {
+      return null;
+    }
+    String key = key(name, host, port, connectionless);
+    ForwarderSpool spool = spools.get(key);
+    if (spool == null) {
+      synchronized (spools) {
+        spool = spools.get(key);
+        if (spool == null) {
+          try {
+            spool = new ForwarderSpool(this, new File(spoolDirectory, key),
+                name, host, port, connectionless, spoolSegmentSize,
+                spoolMaxSize, spoolMaxAge, spoolRetryLimit, spoolSync);
+            spools.put(key, spool);
+          } catch (IOException error) {
+            Log.warning(error);
+          }
+        }
+      }
+    }
+    return spool;
+  }
+  
+  /**
+   * Stop spool threads, undelivered frames stay on disk
+   */
+  public void close() {
+    for (ForwarderSpool spool : spools.values()) {
+      spool.close();
+    }
+  }
+  
+  public long getReconnectMin() {
+    return reconnectMin;
+  }
+  
+  public long getReconnectMax() {
+    return reconnectMax;
+  }
+  
+  public int getMaxPending() {
+    return maxPending;
+  }
+  
+  /**
+   * Connection dedicated to one device session, first frame is replayed after
+   * reconnect so upstream sees the session login again
+   */
+  public ForwarderConnection open(String name, String host, int port,
+      boolean connectionless, ForwarderConnection.Listener listener) {
+    ForwarderConnection connection = new ForwarderConnection(this, name,
+        host, port, connectionless, true, listener, getSpool(name, host, port,
+            connectionless), sessions.incrementAndGet(), null);
+    connection.connect();
+    return connection;
+  }
+  
+  /**
+   * Connection used by a spool to deliver frames of one stored session
+   */
+  ForwarderConnection openReplay(String name, String host, int port,
+      boolean connectionless, ForwarderConnection.Listener listener) {
+    ForwarderConnection connection = new ForwarderConnection(this, name,
+        host, port, connectionless, true, listener, null, 0,
+        replyReader(name, connectionless));
+    connection.connect();
+    return connection;
+  }
+  
+  /**
+   * Connection shared by all devices forwarded to the same remote, upstream
+   * responses are discarded because they can not be routed to a device
+   */
+  public ForwarderConnection openShared(String name, String host, int port,
+      boolean connectionless) {
+    String key = key(name, host, port, connectionless);
+    ForwarderConnection connection = shared.get(key);
+    if (connection == null) {
+      connection = new ForwarderConnection(this, name, host, port,
+          connectionless, false, null, getSpool(name, host, port,
+              connectionless), ForwarderSpool.SHARED, replyReader(name,
+              connectionless));
+      ForwarderConnection existing = shared.putIfAbsent(key, connection);
+      if (existing != null) {
+        return existing;
+      }
+      connection.connect();
+    }
+    return connection;
+  }
+  
+  /**
+   * Reader of TCP replies for connections the spool writes to, datagram
+   * replies use different formats
+   */
+  private static CommandReader replyReader(String name,
+      boolean connectionless) {
+    return connectionless ? null : ProtocolForwarder.getCommandReader(name);
+  }
+  
+  Channel newChannel(ForwarderConnection connection) {
+    ChannelFactory factory;
+    if (connection.isConnectionless()) {
+      factory = GlobalChannelFactory.getDatagramFactory();
+    } else {
+      factory = GlobalChannelFactory.getClientFactory();
+    }
+    Channel channel = factory.newChannel(Channels.pipeline(new UpstreamHandler(
+        connection)));
+    if (!connection.isConnectionless()) {
+      channel.getConfig().setOptions(bootstrap.getOptions());
+      // writes are held back in the connection above maxPending buffered
+      // bytes, marks are set so that low never exceeds high in between
+      channel.getConfig().setOption("writeBufferLowWaterMark", 0);
+      channel.getConfig().setOption("writeBufferHighWaterMark", maxPending);
+      channel.getConfig().setOption("writeBufferLowWaterMark",
+          maxPending / 2);
+    }
+    return channel;
+  }
+  
+  void schedule(TimerTask task, long delay) {
+    GlobalTimer.getTimer().newTimeout(task, delay, TimeUnit.MILLISECONDS);
+  }
+  
+  private static class UpstreamHandler extends SimpleChannelUpstreamHandler {
+    
+    private final ForwarderConnection connection;
+    
+    public UpstreamHandler(ForwarderConnection connection) {
+      this.connection = connection;
+    }
+    
+    @Override
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+      connection.connected(e.getChannel());
+    }
+    
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) {
+      connection.disconnected(e.getChannel());
+    }
+    
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx,
+        ChannelStateEvent e) {
+      if (e.getChannel().isWritable()) {
+        connection.writable(e.getChannel());
+      }
+    }
+    
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+      if (e.getMessage() instanceof ChannelBuffer) {
+        connection.received((ChannelBuffer) e.getMessage());
+      }
+    }
+    
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+      Log.debug("{} forward upstream error {}", connection, e.getCause());
+      e.getChannel().close();
+    }
+    
+  }
+  
+}
@@ -0,0 +1,787 @@
+package org.traccar.forward;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Gauge;
+import org.traccar.metrics.MetricsRegistry;
+
+/**
+ * Durable queue of frames for one forwarding destination.
+ *
+ * Frames are appended to segment files named by their starting offset and
+ * drained in order by a background thread. Record is length of the rest of the
+ * record (int), session (long) and frame bytes. Frames of a session whose
+ * upstream is not ready are parked and retried without holding up other
+ * sessions. Offset of the last delivered frame, with all frames before it,
+ * is kept in the ack file and frames after it are sent again after restart.
+ * For protocols whose command reader counts remote replies (gt06 and
+ * teltonika over TCP) a frame is delivered once the remote answers it, and
+ * a connection without answer for a while is reconnected and its frames sent
+ * again. For other protocols a frame is delivered once the local socket took
+ * the bytes, so frames buffered when the upstream resets are lost. Files are
+ * forced to disk on every write only with sync. Oldest segments are removed
+ * when the spool exceeds its size or age limit. A session that makes no progress
+ * for the retry limit is given up and its frames counted as dropped, so it
+ * does not hold the acknowledged offset back for everyone else.
+ */
+public class ForwarderSpool implements Runnable {
+  
+  /** Session of frames sent over a shared connection */
+  public static final long SHARED = 0;
+  
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String ACK_FILE = "ack";
+  
+  private static final int HEADER_LENGTH = 8;
+  private static final int WINDOW = 256;
+  private static final int MAX_PENDING = 64 * 1024;
+  private static final long RETRY_DELAY = 100;
+  private static final long IDLE_DELAY = 1000;
+  private static final long EXPIRE_INTERVAL = 60 * 1000;
+  private static final long REPLY_TIMEOUT = 30 * 1000;
+  
+  private final ForwarderConnectionManager manager;
+  private final File directory;
+  private final String name;
+  private final String host;
+  private final int port;
+  private final boolean connectionless;
+  
+  private final long segmentSize;
+  private final long maxSize;
+  private final long maxAge;
+  private final long retryLimit;
+  private final boolean sync;
+  
+  private final TreeMap<Long, File> segments = new TreeMap<>();
+  private FileChannel writeChannel;
+  private long writeOffset;
+  
+  private FileChannel ackChannel;
+  private long ackOffset;
+  
+  private FileChannel readChannel;
+  private long readBase = -1;
+  private long readOffset;
+  
+  // frames read but not acknowledged, in log order
+  private final Deque<Delivery> window = new ArrayDeque<>();
+  private final List<Delivery> inFlight = new ArrayList<>();
+  private final Map<Long, Deque<Delivery>> parked = new HashMap<>();
+  private final Map<Long, Long> retryTimes = new HashMap<>();
+  // time of the first failure since a session last made progress
+  private final Map<Long, Long> failTimes = new HashMap<>();
+  private int parkedCount;
+  private final Map<Long, ForwarderConnection> sessions = new HashMap<>();
+  private final ConcurrentMap<Long, ForwarderConnection.Listener> listeners =
+      new ConcurrentHashMap<>();
+  
+  private final Counter spooled;
+  private final Counter expired;
+  private final Counter dropped;
+  
+  private volatile boolean running = true;
+  private boolean signalled;
+  private final Thread thread;
+  
+  private static final class Delivery {
+    
+    private final long start;
+    private final long end;
+    private final long session;
+    private ChannelFuture future; // null while parked
+    private long sent;
+    
+    private Delivery(long start, long end, long session) {
+      this.start = start;
+      this.end = end;
+      this.session = session;
+    }
+    
+  }
+  
+  private static final class Record {
+    
+    private final long start;
+    private final long end;
+    private final long session;
+    private final byte[] data;
+    
+    private Record(long start, long end, long session, byte[] data) {
+      this.start = start;
+      this.end = end;
+      this.session = session;
+      this.data = data;
+    }
+    
+  }
+  
+  public ForwarderSpool(ForwarderConnectionManager manager, File directory,
+      String name, String host, int port, boolean connectionless,
+      long segmentSize, long maxSize, long maxAge, long retryLimit,
+      boolean sync) throws IOException {
+    this.manager = manager;
+    this.directory = directory;
+    this.name = name;
+    this.host = host;
+    this.port = port;
+    this.connectionless = connectionless;
+    this.segmentSize = segmentSize;
+    this.maxSize = maxSize;
+    this.maxAge = maxAge;
+    this.retryLimit = retryLimit;
+    this.sync = sync;
+    
+    MetricsRegistry metrics = Context.getMetricsRegistry();
+    spooled = metrics.counter(name + ".forward.spooled");
+    expired = metrics.counter(name + ".forward.expired");
+    dropped = metrics.counter(name + ".forward.dropped");
+    metrics.gauge(name + ".forward.spool", new Gauge() {
+      @Override
+      public long getValue() {
+        return getSize();
+      }
+    });
+    
+    open();
+    
+    thread = new Thread(this, "forward-spool-" + directory.getName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  public String getName() {
+    return name;
+  }
+  
+  public String getHost() {
+    return host;
+  }
+  
+  public int getPort() {
+    return port;
+  }
+  
+  public boolean isConnectionless() {
+    return connectionless;
+  }
+  
+  /**
+   * Bytes appended but not yet accepted by the upstream
+   */
+  public synchronized long getSize() {
+    return writeOffset - ackOffset;
+  }
+  
+  /**
+   * True when every frame has been handed to the upstream channel
+   */
+  public synchronized boolean isDrained() {
+    return readOffset >= writeOffset && parkedCount == 0;
+  }
+  
+  private File segmentFile(long base) {
+    return new File(directory, String.format("%020d", base) + SEGMENT_SUFFIX);
+  }
+  
+  private static FileChannel openAppend(File file) throws IOException {
+    return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+  
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position);
+      if (count < 0) {
+        return false;
+      }
+      position += count;
+    }
+    buffer.flip();
+    return true;
+  }
+  
+  /**
+   * Length of complete records, tail of a frame interrupted by a crash is cut
+   */
+  private static long validLength(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long position = 0;
+      ByteBuffer header = ByteBuffer.allocate(4);
+      while (position + 4 <= channel.size()) {
+        header.clear();
+        readFully(channel, header, position);
+        int length = header.getInt();
+        if (length < HEADER_LENGTH || position + 4 + length > channel.size()) {
+          break;
+        }
+        position += 4 + length;
+      }
+      if (position < channel.size()) {
+        Log.warning("Forward spool truncated - " + file);
+        channel.truncate(position);
+      }
+      return position;
+    }
+  }
+  
+  private void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can not create spool directory " + directory);
+    }
+    
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String fileName = file.getName();
+        if (fileName.endsWith(SEGMENT_SUFFIX)) {
+          segments.put(Long.parseLong(fileName.substring(0, fileName.length()
+              - SEGMENT_SUFFIX.length())), file);
+        }
+      }
+    }
+    
+    ackChannel = FileChannel.open(new File(directory, ACK_FILE).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    ByteBuffer ack = ByteBuffer.allocate(8);
+    if (readFully(ackChannel, ack, 0)) {
+      ackOffset = ack.getLong();
+    }
+    
+    if (segments.isEmpty()) {
+      segments.put(ackOffset, segmentFile(ackOffset));
+      writeOffset = ackOffset;
+    } else {
+      Map.Entry<Long, File> last = segments.lastEntry();
+      writeOffset = last.getKey() + validLength(last.getValue());
+      ackOffset = Math.max(ackOffset, segments.firstKey());
+      ackOffset = Math.min(ackOffset, writeOffset);
+    }
+    writeChannel = openAppend(segments.lastEntry().getValue());
+    readOffset = ackOffset;
+    
+    if (writeOffset > ackOffset) {
+      Log.info("Forward spool {} replaying {} bytes", directory.getName(),
+          writeOffset - ackOffset);
+    }
+  }
+  
+  /**
+   * Append frame, returns false if it could not be stored
+   */
+  public synchronized boolean append(long session, ChannelBuffer buffer) {
+    if (!running) {
+      return false;
+    }
+    int length = buffer.readableBytes();
+    ByteBuffer header = ByteBuffer.allocate(4 + HEADER_LENGTH);
+    header.putInt(HEADER_LENGTH + length).putLong(session).flip();
+    // gathering write straight from the frame content
+    ByteBuffer[] record = { header, buffer.toByteBuffer() };
+    try {
+      if (writeOffset - segments.lastKey() >= segmentSize) {
+        writeChannel.close();
+        segments.put(writeOffset, segmentFile(writeOffset));
+        writeChannel = openAppend(segments.lastEntry().getValue());
+      }
+      while (header.hasRemaining() || record[1].hasRemaining()) {
+        writeChannel.write(record);
+      }
+      if (sync) {
+        writeChannel.force(false);
+      }
+      writeOffset += 4 + HEADER_LENGTH + length;
+    } catch (IOException error) {
+      Log.warning(error);
+      return false;
+    }
+    spooled.inc();
+    
+    while (maxSize > 0 && writeOffset - segments.firstKey() > maxSize
+        && segments.size() > 1) {
+      removeFirst();
+    }
+    
+    signal();
+    return true;
+  }
+  
+  /**
+   * Wake the delivery thread after an append or a completed write
+   */
+  private synchronized void signal() {
+    signalled = true;
+    notifyAll();
+  }
+  
+  private synchronized void await(long delay) throws InterruptedException {
+    if (!signalled && running) {
+      wait(delay);
+    }
+    signalled = false;
+  }
+  
+  /**
+   * Route remote messages of a spooled session back to its device
+   */
+  public void register(long session, ForwarderConnection.Listener listener) {
+    if (listener != null) {
+      listeners.put(session, listener);
+    }
+  }
+  
+  public void unregister(long session) {
+    listeners.remove(session);
+  }
+  
+  private void removeFirst() {
+    Map.Entry<Long, File> first = segments.pollFirstEntry();
+    long next = segments.firstKey();
+    if (ackOffset < next) {
+      expired.inc(next - Math.max(ackOffset, first.getKey()));
+      ackOffset = next;
+      writeAck();
+    }
+    if (!first.getValue().delete()) {
+      Log.warning("Forward spool segment delete failed - " + first.getValue());
+    }
+  }
+  
+  private synchronized void expire() {
+    long limit = System.currentTimeMillis() - maxAge;
+    while (maxAge > 0 && segments.size() > 1
+        && segments.firstEntry().getValue().lastModified() < limit) {
+      removeFirst();
+    }
+  }
+  
+  private void writeAck() {
+    ByteBuffer ack = ByteBuffer.allocate(8);
+    ack.putLong(ackOffset).flip();
+    try {
+      while (ack.hasRemaining()) {
+        ackChannel.write(ack, ack.position());
+      }
+      if (sync) {
+        ackChannel.force(false);
+      }
+    } catch (IOException error) {
+      Log.warning(error);
+    }
+  }
+  
+  private synchronized Record read() throws IOException {
+    if (readOffset >= writeOffset) {
+      return null;
+    }
+    Record record = readAt(readOffset);
+    if (record != null) {
+      readOffset = record.end;
+    }
+    return record;
+  }
+  
+  private synchronized Record readAt(long offset) throws IOException {
+    if (offset < segments.firstKey()) {
+      return null; // removed by limits, dropped by prune
+    }
+    Map.Entry<Long, File> segment = segments.floorEntry(offset);
+    if (segment.getKey() != readBase) {
+      if (readChannel != null) {
+        readChannel.close();
+      }
+      readChannel = FileChannel.open(segment.getValue().toPath(),
+          StandardOpenOption.READ);
+      readBase = segment.getKey();
+    }
+    
+    long position = offset - readBase;
+    ByteBuffer header = ByteBuffer.allocate(4 + HEADER_LENGTH);
+    if (!readFully(readChannel, header, position)) {
+      return null;
+    }
+    int length = header.getInt();
+    long session = header.getLong();
+    ByteBuffer data = ByteBuffer.allocate(length - HEADER_LENGTH);
+    if (!readFully(readChannel, data, position + 4 + HEADER_LENGTH)) {
+      return null;
+    }
+    
+    return new Record(offset, offset + 4 + length, session, data.array());
+  }
+  
+  private synchronized void updateParked(int delta) {
+    parkedCount += delta;
+  }
+  
+  /**
+   * Drop frames removed by the size or age limits while not yet acknowledged
+   */
+  private void prune() {
+    long first;
+    synchronized (this) {
+      first = segments.firstKey();
+      readOffset = Math.max(readOffset, first);
+    }
+    while (!window.isEmpty() && window.peek().start < first) {
+      Delivery delivery = window.poll();
+      inFlight.remove(delivery);
+      Deque<Delivery> queue = parked.get(delivery.session);
+      if (queue != null && queue.remove(delivery)) {
+        updateParked(-1);
+        if (queue.isEmpty()) {
+          parked.remove(delivery.session);
+        }
+      }
+    }
+  }
+  
+  private void park(Delivery delivery) {
+    Deque<Delivery> queue = parked.get(delivery.session);
+    if (queue == null) {
+      queue = new ArrayDeque<>();
+      parked.put(delivery.session, queue);
+    }
+    queue.add(delivery);
+    updateParked(1);
+  }
+  
+  /**
+   * Park the failed frame and every later frame of its session, sent or not,
+   * so the session is delivered again in order
+   */
+  private void repark(Delivery failed) {
+    Deque<Delivery> queue = parked.remove(failed.session);
+    int delta = queue != null ? -queue.size() : 0;
+    queue = new ArrayDeque<>();
+    for (Delivery delivery : window) {
+      if (delivery.session == failed.session
+          && delivery.start >= failed.start) {
+        if (delivery.future != null) {
+          inFlight.remove(delivery);
+          delivery.future = null;
+        }
+        queue.add(delivery);
+      }
+    }
+    parked.put(failed.session, queue);
+    updateParked(delta + queue.size());
+    retry(failed.session);
+  }
+  
+  private void retry(long session) {
+    long time = System.currentTimeMillis();
+    retryTimes.put(session, time + RETRY_DELAY);
+    if (!failTimes.containsKey(session)) {
+      failTimes.put(session, time);
+    }
+  }
+  
+  /**
+   * Drop every frame of a session that kept failing past the retry limit
+   */
+  private void giveUp(long session) {
+    int count = 0;
+    Iterator<Delivery> iterator = window.iterator();
+    while (iterator.hasNext()) {
+      Delivery delivery = iterator.next();
+      if (delivery.session == session) {
+        iterator.remove();
+        inFlight.remove(delivery);
+        count++;
+      }
+    }
+    Deque<Delivery> queue = parked.remove(session);
+    if (queue != null) {
+      updateParked(-queue.size());
+    }
+    retryTimes.remove(session);
+    failTimes.remove(session);
+    if (session != SHARED) {
+      ForwarderConnection connection = sessions.remove(session);
+      if (connection != null) {
+        connection.close();
+      }
+    }
+    dropped.inc(count);
+    Log.warning("Forward spool " + directory.getName() + " gave up session "
+        + session + ", dropped " + count + " frames");
+  }
+  
+  private boolean transmit(Delivery delivery, byte[] data) {
+    ChannelFuture future = session(delivery.session).transmit(
+        ChannelBuffers.wrappedBuffer(data));
+    if (future == null) {
+      // not connected or not writable, connection retries on its own
+      retry(delivery.session);
+      return false;
+    }
+    failTimes.remove(delivery.session);
+    delivery.future = future;
+    delivery.sent = System.currentTimeMillis();
+    inFlight.add(delivery);
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture completed) {
+        signal();
+      }
+    });
+    return true;
+  }
+  
+  private void poll() {
+    Delivery failed = null;
+    long time = System.currentTimeMillis();
+    Iterator<Delivery> iterator = inFlight.iterator();
+    while (iterator.hasNext()) {
+      Delivery delivery = iterator.next();
+      if (delivery.future.isDone()) {
+        iterator.remove();
+        if (!delivery.future.isSuccess()) {
+          failed = delivery;
+          break;
+        }
+      } else if (time - delivery.sent > REPLY_TIMEOUT) {
+        // remote stopped answering, frames fail once the channel is closed
+        session(delivery.session).resync();
+      }
+    }
+    if (failed != null) {
+      // upstream lost, deliver the session again from the failed frame
+      repark(failed);
+    }
+  }
+  
+  private void acknowledge() {
+    long acknowledged = -1;
+    while (!window.isEmpty() && window.peek().future != null
+        && window.peek().future.isDone()
+        && window.peek().future.isSuccess()) {
+      acknowledged = window.poll().end;
+    }
+    if (acknowledged >= 0) {
+      synchronized (this) {
+        if (acknowledged > ackOffset) {
+          ackOffset = acknowledged;
+          writeAck();
+          while (segments.size() > 1
+              && segments.higherKey(segments.firstKey()) <= ackOffset) {
+            Map.Entry<Long, File> first = segments.pollFirstEntry();
+            if (!first.getValue().delete()) {
+              Log.warning("Forward spool segment delete failed - "
+                  + first.getValue());
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  private boolean isReady(long session, long time) {
+    Long retryTime = retryTimes.get(session);
+    return retryTime == null || retryTime <= time;
+  }
+  
+  private boolean isExhausted(long session, long time) {
+    Long failTime = failTimes.get(session);
+    return retryLimit > 0 && failTime != null && time - failTime > retryLimit;
+  }
+  
+  /**
+   * Time to wait for the earliest parked session retry
+   */
+  private long nextDelay() {
+    if (window.isEmpty()) {
+      return IDLE_DELAY;
+    }
+    long delay = IDLE_DELAY;
+    long time = System.currentTimeMillis();
+    for (Long retryTime : retryTimes.values()) {
+      delay = Math.min(delay, retryTime - time);
+    }
+    return Math.max(delay, 1);
+  }
+  
+  /**
+   * Retry parked sessions whose delay has passed, returns true on progress
+   */
+  private boolean retryParked() throws IOException {
+    boolean progress = false;
+    long time = System.currentTimeMillis();
+    List<Long> exhausted = new ArrayList<>();
+    Iterator<Map.Entry<Long, Deque<Delivery>>> iterator = parked.entrySet()
+        .iterator();
+    while (iterator.hasNext() && inFlight.size() < WINDOW) {
+      Map.Entry<Long, Deque<Delivery>> entry = iterator.next();
+      if (isExhausted(entry.getKey(), time)) {
+        exhausted.add(entry.getKey());
+        continue;
+      }
+      if (!isReady(entry.getKey(), time)) {
+        continue;
+      }
+      Deque<Delivery> queue = entry.getValue();
+      while (!queue.isEmpty() && inFlight.size() < WINDOW) {
+        Delivery delivery = queue.peek();
+        Record record = readAt(delivery.start);
+        if (record == null || !transmit(delivery, record.data)) {
+          break;
+        }
+        queue.poll();
+        updateParked(-1);
+        progress = true;
+      }
+      if (queue.isEmpty()) {
+        iterator.remove();
+        retryTimes.remove(entry.getKey());
+      }
+    }
+    for (long session : exhausted) {
+      giveUp(session);
+      progress = true;
+    }
+    return progress;
+  }
+  
+  private ForwarderConnection session(final long session) {
+    ForwarderConnection connection = sessions.get(session);
+    if (connection == null) {
+      if (session == SHARED) {
+        connection = manager.openShared(name, host, port, connectionless);
+      } else {
+        connection = manager.openReplay(name, host, port, connectionless,
+            new ForwarderConnection.Listener() {
+              @Override
+              public void messageReceived(ChannelBuffer buffer) {
+                ForwarderConnection.Listener listener = listeners.get(session);
+                if (listener != null) {
+                  listener.messageReceived(buffer);
+                }
+              }
+            });
+      }
+      sessions.put(session, connection);
+    }
+    return connection;
+  }
+  
+  /**
+   * Close replay connections of ended sessions once everything is delivered
+   */
+  private void closeIdleSessions() {
+    if (!window.isEmpty() || !isDrained()) {
+      return;
+    }
+    retryTimes.clear();
+    failTimes.clear();
+    Iterator<Map.Entry<Long, ForwarderConnection>> iterator = sessions
+        .entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, ForwarderConnection> entry = iterator.next();
+      if (entry.getKey() != SHARED && !listeners.containsKey(entry.getKey())) {
+        entry.getValue().close();
+        iterator.remove();
+      }
+    }
+  }
+  
+  @Override
+  public void run() {
+    long expireTime = 0;
+    while (running) {
+      try {
+        
+        if (System.currentTimeMillis() - expireTime > EXPIRE_INTERVAL) {
+          expire();
+          expireTime = System.currentTimeMillis();
+        }
+        
+        prune();
+        poll();
+        acknowledge();
+        boolean progress = retryParked();
+        
+        long time = System.currentTimeMillis();
+        Record record = null;
+        // parked frames are only offsets, but their number is still capped
+        while (inFlight.size() < WINDOW && window.size() < MAX_PENDING
+            && (record = read()) != null) {
+          Delivery delivery = new Delivery(record.start, record.end,
+              record.session);
+          window.add(delivery);
+          // later frames of a parked session wait behind it to keep order
+          if (parked.containsKey(record.session)
+              || !isReady(record.session, time)
+              || !transmit(delivery, record.data)) {
+            park(delivery);
+          }
+          progress = true;
+        }
+        
+        if (!progress) {
+          if (window.isEmpty()) {
+            closeIdleSessions();
+          }
+          // woken early by appends and completed writes
+          await(nextDelay());
+        }
+        
+      } catch (InterruptedException error) {
+        running = false;
+      } catch (IOException error) {
+        Log.warning(error);
+        try {
+          Thread.sleep(RETRY_DELAY);
+        } catch (InterruptedException interrupted) {
+          running = false;
+        }
+      }
+    }
+  }
+  
+  public void close() {
+    running = false;
+    signal();
+    try {
+      thread.join();
+    } catch (InterruptedException error) {
+      Log.warning(error);
+    }
+    synchronized (this) {
+      try {
+        writeChannel.close();
+        ackChannel.close();
+        if (readChannel != null) {
+          readChannel.close();
+        }
+      } catch (IOException error) {
+        Log.warning(error);
+      }
+    }
+  }
+  
+}
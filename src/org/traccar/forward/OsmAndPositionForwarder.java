@@ -0,0 +1,90 @@
+package org.traccar.forward;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.netty.channel.ChannelHandler;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.model.Position;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.Response;
+
+/**
+ * OsmAnd has no batch format, so every position is one request over the
+ * keep-alive connections pooled by the shared HTTP client
+ */
+@ChannelHandler.Sharable
+public class OsmAndPositionForwarder extends PositionForwarder {
+  
+  private final String url;
+  
+  private final Counter pending = Context.getMetricsRegistry().counter(
+      "forward.position.pending");
+  
+  public OsmAndPositionForwarder(String url) {
+    this.url = url.indexOf('?') < 0 ? url + "?" : url + "&";
+  }
+  
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException error) {
+      Log.warning(error);
+      return value;
+    }
+  }
+  
+  public String formatRequest(String uniqueId, Position position) {
+    StringBuilder s = new StringBuilder(url);
+    s.append("id=").append(encode(uniqueId));
+    s.append("&timestamp=").append(position.getFixTime().getTime() / 1000);
+    s.append("&lat=").append(position.getLatitude());
+    s.append("&lon=").append(position.getLongitude());
+    s.append("&speed=").append(position.getSpeed());
+    s.append("&bearing=").append(position.getCourse());
+    s.append("&altitude=").append(position.getAltitude());
+    s.append("&valid=").append(position.getValid());
+    Object hdop = position.getAttributes().get(Position.KEY_HDOP);
+    if (hdop != null) {
+      s.append("&hdop=").append(hdop);
+    }
+    Object battery = position.getAttributes().get(Position.KEY_BATTERY);
+    if (battery != null) {
+      s.append("&batt=").append(battery);
+    }
+    return s.toString();
+  }
+  
+  @Override
+  protected void forward(String uniqueId, Position position) {
+    
+    final String request = formatRequest(uniqueId, position);
+    
+    pending.inc();
+    Context.getAsyncHttpClient().prepareGet(request)
+        .execute(new AsyncCompletionHandler<Response>() {
+          @Override
+          public Response onCompleted(Response response) throws Exception {
+            pending.dec();
+            if (Log.isDebugEnabled()) {
+              Log.debug("[OsmAndPositionForwarder] Forwarded position : "
+                  + "request.url = {} , response.statusCode = {}", request,
+                  response.getStatusCode());
+            }
+            return response;
+          }
+          
+          @Override
+          public void onThrowable(Throwable throwable) {
+            pending.dec();
+            Log.debug("[OsmAndPositionForwarder] Failed to forward position : "
+                + "request.url = {} , throwable = {}", request, throwable);
+          }
+        });
+  }
+  
+}
@@ -0,0 +1,34 @@
+package org.traccar.forward;
+
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.traccar.model.Position;
+
+/**
+ * Encodes decoded positions into the stream format of another protocol
+ */
+public abstract class PositionEncoder {
+  
+  /**
+   * Frame opening a device session, null if the protocol has none
+   */
+  public ChannelBuffer encodeLogin(String uniqueId) {
+    return null;
+  }
+  
+  public int getMaxBatchSize() {
+    return Integer.MAX_VALUE;
+  }
+  
+  public abstract ChannelBuffer encode(List<Position> positions);
+  
+  protected static int getSatellites(Position position) {
+    Object satellites = position.getAttributes().get(Position.KEY_SATELLITES);
+    if (satellites instanceof Number) {
+      return ((Number) satellites).intValue();
+    }
+    return 0;
+  }
+  
+}
@@ -0,0 +1,43 @@
+package org.traccar.forward;
+
+import org.traccar.BaseDataHandler;
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.model.Device;
+import org.traccar.model.Position;
+
+/**
+ * Sends decoded positions of every protocol to a partner platform in its own
+ * protocol, selected by forward.position.type: wialon, teltonika or osmand
+ */
+public abstract class PositionForwarder extends BaseDataHandler {
+  
+  public static PositionForwarder create(Config config) {
+    String type = config.getString("forward.position.type", "wialon");
+    String remote = config.getString("forward.position.remote");
+    switch (type) {
+    case "osmand":
+      return new OsmAndPositionForwarder(remote);
+    case "teltonika":
+      return new StreamPositionForwarder(config, remote,
+          new TeltonikaPositionEncoder());
+    default:
+      return new StreamPositionForwarder(config, remote,
+          new WialonPositionEncoder(config
+              .getString("forward.position.password")));
+    }
+  }
+  
+  protected abstract void forward(String uniqueId, Position position);
+  
+  @Override
+  protected Position handlePosition(Position position) {
+    Device device = Context.getIdentityManager().getDeviceById(
+        position.getDeviceId());
+    if (device != null && position.getFixTime() != null) {
+      forward(device.getUniqueId(), position);
+    }
+    return position;
+  }
+  
+}
@@ -0,0 +1,234 @@
+package org.traccar.forward;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.MetricsRegistry;
+
+/**
+ * Mirrors raw device traffic to remote servers.
+ *
+ * Added in front of the decoder of every protocol with
+ * <protocol>.forward.enable. Frames go unchanged to each destination of
+ * <protocol>.forward.remote (comma separated host:port) or of the remote-host
+ * and remote-port keys. Messages from the first destination are relayed to the
+ * device depending on <protocol>.forward.downlink: all, none or commands. The
+ * commands mode relays only messages accepted by the command reader registered
+ * for the protocol, and it is the default when a reader exists.
+ */
+public class ProtocolForwarder extends SimpleChannelUpstreamHandler {
+  
+  public static final String DOWNLINK_ALL = "all";
+  public static final String DOWNLINK_NONE = "none";
+  public static final String DOWNLINK_COMMANDS = "commands";
+  
+  private static final ConcurrentMap<String, CommandReader> COMMAND_READERS = new ConcurrentHashMap<>();
+  
+  public static void registerCommandReader(String protocol,
+      CommandReader commandReader) {
+    COMMAND_READERS.put(protocol, commandReader);
+  }
+  
+  public static CommandReader getCommandReader(String protocol) {
+    return COMMAND_READERS.get(protocol);
+  }
+  
+  public static boolean isEnabled(String protocol) {
+    return Context.getConfig().getBoolean(protocol + ".forward.enable");
+  }
+  
+  /**
+   * Forwarding options of one protocol server, parsed once and shared by the
+   * handlers of all its channels
+   */
+  public static final class Settings {
+    
+    private final String protocol;
+    private final boolean shared;
+    private final String downlink;
+    private final CommandReader commandReader;
+    
+    private final List<String> hosts = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private final ForwarderConnection[] sharedConnections;
+    
+    private final Counter backlog;
+    private final Counter dropped;
+    
+    public Settings(String protocol, boolean connectionless) {
+      this.protocol = protocol;
+      
+      Config config = Context.getConfig();
+      String keyPrefix = protocol + ".forward";
+      
+      String remote = config.getString(keyPrefix + ".remote");
+      if (remote != null) {
+        for (String destination : remote.split(",")) {
+          int separator = destination.lastIndexOf(':');
+          hosts.add(destination.substring(0, separator).trim());
+          ports.add(Integer.parseInt(destination.substring(separator + 1)
+              .trim()));
+        }
+      } else if (config.hasKey(keyPrefix + ".remote-host")) {
+        hosts.add(config.getString(keyPrefix + ".remote-host"));
+        ports.add(config.getInteger(keyPrefix + ".remote-port"));
+      }
+      
+      commandReader = COMMAND_READERS.get(protocol);
+      downlink = config.getString(keyPrefix + ".downlink",
+          commandReader != null ? DOWNLINK_COMMANDS : DOWNLINK_ALL);
+      
+      MetricsRegistry metrics = Context.getMetricsRegistry();
+      backlog = metrics.counter(keyPrefix + ".backlog");
+      dropped = metrics.counter(keyPrefix + ".dropped");
+      
+      // datagram server has one pipeline for all devices
+      shared = connectionless || config.getBoolean(keyPrefix + ".shared");
+      
+      if (shared) {
+        sharedConnections = new ForwarderConnection[hosts.size()];
+        for (int i = 0; i < sharedConnections.length; i++) {
+          sharedConnections[i] = Context.getForwarderConnectionManager()
+              .openShared(protocol, hosts.get(i), ports.get(i),
+                  connectionless);
+        }
+      } else {
+        sharedConnections = null;
+      }
+    }
+    
+  }
+  
+  private final Settings settings;
+  private final String protocol;
+  private final boolean shared;
+  private final String downlink;
+  private final CommandReader commandReader;
+  private final ForwarderConnection[] connections;
+  
+  private final Counter backlog;
+  private final Counter dropped;
+  
+  public ProtocolForwarder(Settings settings) {
+    this.settings = settings;
+    protocol = settings.protocol;
+    shared = settings.shared;
+    downlink = settings.downlink;
+    commandReader = settings.commandReader;
+    backlog = settings.backlog;
+    dropped = settings.dropped;
+    
+    if (shared) {
+      connections = settings.sharedConnections;
+    } else {
+      connections = new ForwarderConnection[settings.hosts.size()];
+    }
+  }
+  
+  @Override
+  public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e)
+      throws Exception {
+    if (!shared) {
+      final Channel channel = e.getChannel();
+      for (int i = 0; i < connections.length; i++) {
+        ForwarderConnection.Listener listener = null;
+        if (i == 0 && !DOWNLINK_NONE.equals(downlink)) {
+          listener = new ForwarderConnection.Listener() {
+            @Override
+            public void messageReceived(ChannelBuffer buffer) {
+              downlink(channel, buffer);
+            }
+          };
+        }
+        connections[i] = Context.getForwarderConnectionManager().open(
+            protocol, settings.hosts.get(i), settings.ports.get(i), false,
+            listener);
+      }
+    }
+    super.channelConnected(ctx, e);
+  }
+  
+  @Override
+  public void channelDisconnected(ChannelHandlerContext ctx,
+      ChannelStateEvent e) throws Exception {
+    if (!shared) {
+      for (ForwarderConnection connection : connections) {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+    }
+    super.channelDisconnected(ctx, e);
+  }
+  
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+      throws Exception {
+    if (e.getMessage() instanceof ChannelBuffer) {
+      ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+      
+      if (Log.isDebugEnabled()) {
+        Log.debug("{}[{}] forward {} bytes, hex = {}",
+            Log.header(e.getChannel()), protocol, buffer.readableBytes(),
+            Log.hex(buffer));
+      }
+      
+      // Transport hands every read to the pipeline in a new buffer and
+      // frame decoders extract frames as copies, so nothing downstream
+      // writes into this buffer. Each destination gets its own indexes
+      // over the same content instead of a copy.
+      for (ForwarderConnection connection : connections) {
+        if (connection == null) {
+          dropped.inc();
+        } else {
+          connection.write(buffer.duplicate());
+        }
+      }
+    }
+    super.messageReceived(ctx, e);
+  }
+  
+  private void downlink(Channel channel, ChannelBuffer buffer) {
+    if (DOWNLINK_COMMANDS.equals(downlink)) {
+      String commandText = null;
+      if (commandReader != null) {
+        commandText = commandReader.readCommandText(buffer.duplicate());
+      }
+      if (commandText == null || commandText.isEmpty()) {
+        return;
+      }
+      if (Log.isDebugEnabled()) {
+        Log.debug("{}[{}] forward command : {}", Log.header(channel),
+            protocol, commandText);
+      }
+    }
+    
+    if (!channel.isConnected()) {
+      dropped.inc();
+      return;
+    }
+    final int length = buffer.readableBytes();
+    backlog.inc(length);
+    channel.write(buffer).addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        backlog.inc(-length);
+      }
+    });
+  }
+  
+}
@@ -0,0 +1,164 @@
+package org.traccar.forward;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.GlobalTimer;
+import org.traccar.model.Position;
+
+/**
+ * Forwards positions over one upstream session per device.
+ *
+ * Positions are collected per device and encoded together once
+ * forward.position.batchSize is reached or forward.position.batchDelay
+ * milliseconds have passed. Sessions log in with the device identifier, are
+ * kept open between batches and closed after forward.position.idleTimeout
+ * seconds without positions.
+ */
+@ChannelHandler.Sharable
+public class StreamPositionForwarder extends PositionForwarder {
+  
+  public static final String NAME = "position";
+  
+  private final String host;
+  private final int port;
+  private final PositionEncoder encoder;
+  
+  private final int batchSize;
+  private final long batchDelay;
+  private final long idleTimeout;
+  
+  private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+  
+  private final class Session implements TimerTask {
+    
+    private final String uniqueId;
+    private ForwarderConnection connection;
+    private final List<Position> batch = new ArrayList<>();
+    
+    private Timeout timeout;
+    private long lastUsed = System.currentTimeMillis();
+    private boolean closed;
+    
+    private Session(String uniqueId) {
+      this.uniqueId = uniqueId;
+    }
+    
+    private synchronized boolean add(Position position) {
+      if (closed) {
+        return false;
+      }
+      if (connection == null) {
+        // login is the first frame, replayed on every reconnect
+        connection = Context.getForwarderConnectionManager().open(NAME, host,
+            port, false, null);
+        ChannelBuffer login = encoder.encodeLogin(uniqueId);
+        if (login != null) {
+          connection.write(login);
+        }
+      }
+      lastUsed = System.currentTimeMillis();
+      batch.add(position);
+      if (batch.size() >= batchSize) {
+        flush();
+      } else if (timeout == null) {
+        timeout = GlobalTimer.getTimer().newTimeout(this, batchDelay,
+            TimeUnit.MILLISECONDS);
+      }
+      return true;
+    }
+    
+    private synchronized void flush() {
+      if (timeout != null) {
+        timeout.cancel();
+        timeout = null;
+      }
+      if (!batch.isEmpty()) {
+        connection.write(encoder.encode(batch));
+        batch.clear();
+      }
+    }
+    
+    private synchronized boolean closeIfIdle(long time) {
+      if (time - lastUsed < idleTimeout) {
+        return false;
+      }
+      flush();
+      closed = true;
+      if (connection != null) {
+        connection.close();
+      }
+      return true;
+    }
+    
+    @Override
+    public synchronized void run(Timeout timeout) {
+      if (timeout == this.timeout) {
+        this.timeout = null;
+        flush();
+      }
+    }
+    
+  }
+  
+  public StreamPositionForwarder(Config config, String remote,
+      PositionEncoder encoder) {
+    int separator = remote.lastIndexOf(':');
+    host = remote.substring(0, separator);
+    port = Integer.parseInt(remote.substring(separator + 1));
+    this.encoder = encoder;
+    
+    batchSize = Math.min(config.getInteger("forward.position.batchSize", 50),
+        encoder.getMaxBatchSize());
+    batchDelay = config.getLong("forward.position.batchDelay", 1000);
+    idleTimeout = config.getLong("forward.position.idleTimeout", 300) * 1000;
+    
+    GlobalTimer.getTimer().newTimeout(new TimerTask() {
+      @Override
+      public void run(Timeout timeout) {
+        closeIdleSessions();
+        GlobalTimer.getTimer().newTimeout(this, idleTimeout,
+            TimeUnit.MILLISECONDS);
+      }
+    }, idleTimeout, TimeUnit.MILLISECONDS);
+  }
+  
+  private void closeIdleSessions() {
+    long time = System.currentTimeMillis();
+    Iterator<Session> iterator = sessions.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().closeIfIdle(time)) {
+        iterator.remove();
+      }
+    }
+  }
+  
+  @Override
+  protected void forward(String uniqueId, Position position) {
+    while (true) {
+      Session session = sessions.get(uniqueId);
+      if (session == null) {
+        session = new Session(uniqueId);
+        Session existing = sessions.putIfAbsent(uniqueId, session);
+        if (existing != null) {
+          session = existing;
+        }
+      }
+      if (session.add(position)) {
+        return;
+      }
+      sessions.remove(uniqueId, session);
+    }
+  }
+  
+}
@@ -0,0 +1,70 @@
+package org.traccar.forward;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.traccar.helper.Checksum;
+import org.traccar.helper.UnitsConverter;
+import org.traccar.model.Position;
+
+/**
+ * Teltonika IMEI handshake and codec 8 AVL packets without IO elements
+ */
+public class TeltonikaPositionEncoder extends PositionEncoder {
+  
+  private static final int CODEC_FM4X00 = 0x08;
+  private static final int RECORD_LENGTH = 8 + 1 + 4 + 4 + 2 + 2 + 1 + 2 + 6;
+  
+  @Override
+  public ChannelBuffer encodeLogin(String uniqueId) {
+    byte[] imei = uniqueId.getBytes(StandardCharsets.US_ASCII);
+    ChannelBuffer buf = ChannelBuffers.buffer(2 + imei.length);
+    buf.writeShort(imei.length);
+    buf.writeBytes(imei);
+    return buf;
+  }
+  
+  @Override
+  public int getMaxBatchSize() {
+    return 255;
+  }
+  
+  @Override
+  public ChannelBuffer encode(List<Position> positions) {
+    int dataLength = 1 + 1 + positions.size() * RECORD_LENGTH + 1;
+    ChannelBuffer buf = ChannelBuffers.buffer(4 + 4 + dataLength + 4);
+    
+    buf.writeInt(0); // marker
+    buf.writeInt(dataLength);
+    int dataStart = buf.writerIndex();
+    buf.writeByte(CODEC_FM4X00);
+    buf.writeByte(positions.size());
+    
+    for (Position position : positions) {
+      buf.writeLong(position.getFixTime().getTime());
+      buf.writeByte(0); // priority
+      buf.writeInt((int) Math.round(position.getLongitude() * 10000000));
+      buf.writeInt((int) Math.round(position.getLatitude() * 10000000));
+      buf.writeShort((int) Math.round(position.getAltitude()));
+      buf.writeShort((int) Math.round(position.getCourse()));
+      buf.writeByte(position.getValid() ? Math.max(getSatellites(position), 3)
+          : 0);
+      buf.writeShort((int) Math.round(UnitsConverter.kphFromKnots(position
+          .getSpeed())));
+      buf.writeByte(0); // event io id
+      buf.writeByte(0); // total io count
+      buf.writeByte(0); // 1 byte io count
+      buf.writeByte(0); // 2 byte io count
+      buf.writeByte(0); // 4 byte io count
+      buf.writeByte(0); // 8 byte io count
+    }
+    
+    buf.writeByte(positions.size());
+    buf.writeInt(Checksum.crc16(Checksum.CRC16_IBM,
+        buf.toByteBuffer(dataStart, dataLength)));
+    return buf;
+  }
+  
+}
@@ -0,0 +1,95 @@
+package org.traccar.forward;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.traccar.helper.UnitsConverter;
+import org.traccar.model.Position;
+
+/**
+ * Wialon IPS login and black box messages with short data records
+ */
+public class WialonPositionEncoder extends PositionEncoder {
+  
+  private final String password;
+  
+  public WialonPositionEncoder(String password) {
+    this.password = password != null ? password : "NA";
+  }
+  
+  @Override
+  public ChannelBuffer encodeLogin(String uniqueId) {
+    return ChannelBuffers.copiedBuffer("#L#" + uniqueId + ";" + password
+        + "\r\n", StandardCharsets.US_ASCII);
+  }
+  
+  private static void appendNumber(StringBuilder s, int value, int digits) {
+    String text = String.valueOf(value);
+    for (int i = text.length(); i < digits; i++) {
+      s.append('0');
+    }
+    s.append(text);
+  }
+  
+  private static void appendCoordinate(StringBuilder s, double value,
+      int degreeDigits, char positive, char negative) {
+    double absolute = Math.abs(value);
+    int degrees = (int) absolute;
+    int minutes = (int) Math.round((absolute - degrees) * 60 * 10000);
+    if (minutes >= 60 * 10000) {
+      degrees += 1;
+      minutes -= 60 * 10000;
+    }
+    appendNumber(s, degrees, degreeDigits);
+    appendNumber(s, minutes / 10000, 2);
+    s.append('.');
+    appendNumber(s, minutes % 10000, 4);
+    s.append(';').append(value < 0 ? negative : positive).append(';');
+  }
+  
+  private static void appendRecord(StringBuilder s, Calendar calendar,
+      Position position) {
+    calendar.setTime(position.getFixTime());
+    appendNumber(s, calendar.get(Calendar.DAY_OF_MONTH), 2);
+    appendNumber(s, calendar.get(Calendar.MONTH) + 1, 2);
+    appendNumber(s, calendar.get(Calendar.YEAR) % 100, 2);
+    s.append(';');
+    appendNumber(s, calendar.get(Calendar.HOUR_OF_DAY), 2);
+    appendNumber(s, calendar.get(Calendar.MINUTE), 2);
+    appendNumber(s, calendar.get(Calendar.SECOND), 2);
+    s.append(';');
+    appendCoordinate(s, position.getLatitude(), 2, 'N', 'S');
+    appendCoordinate(s, position.getLongitude(), 3, 'E', 'W');
+    s.append(Math.round(UnitsConverter.kphFromKnots(position.getSpeed())));
+    s.append(';').append(Math.round(position.getCourse()));
+    s.append(';').append(Math.round(position.getAltitude()));
+    s.append(';').append(getSatellites(position));
+  }
+  
+  @Override
+  public ChannelBuffer encode(List<Position> positions) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"),
+        Locale.ENGLISH);
+    StringBuilder s = new StringBuilder(positions.size() * 64 + 8);
+    if (positions.size() == 1) {
+      s.append("#SD#");
+      appendRecord(s, calendar, positions.get(0));
+    } else {
+      s.append("#B#");
+      for (int i = 0; i < positions.size(); i++) {
+        if (i > 0) {
+          s.append('|');
+        }
+        appendRecord(s, calendar, positions.get(i));
+      }
+    }
+    s.append("\r\n");
+    return ChannelBuffers.copiedBuffer(s, StandardCharsets.US_ASCII);
+  }
+  
+}
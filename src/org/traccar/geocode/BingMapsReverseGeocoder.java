@@ -20,8 +20,8 @@ import javax.json.JsonObject;
 
 public class BingMapsReverseGeocoder extends JsonReverseGeocoder {
   
-  public BingMapsReverseGeocoder(String url, String key, int cacheSize) {
-    super(url + "/Locations/%f,%f?key=" + key + "&include=ciso2", cacheSize);
+  public BingMapsReverseGeocoder(String url, String key) {
+    super(url + "/Locations/%f,%f?key=" + key + "&include=ciso2");
   }
   
   @Override
@@ -19,8 +19,8 @@ import javax.json.JsonObject;
 
 public class FactualReverseGeocoder extends JsonReverseGeocoder {
   
-  public FactualReverseGeocoder(String url, String key, int cacheSize) {
-    super(url + "?latitude=%f&longitude=%f&KEY=" + key, cacheSize);
+  public FactualReverseGeocoder(String url, String key) {
+    super(url + "?latitude=%f&longitude=%f&KEY=" + key);
   }
   
   @Override
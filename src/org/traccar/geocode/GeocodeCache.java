@@ -0,0 +1,215 @@
+package org.traccar.geocode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.GlobalTimer;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Gauge;
+
+/**
+ * Address cache keyed by grid cell.
+ *
+ * Coordinates are rounded to geocoder.cachePrecision decimal places (4 by
+ * default, about 11 meters), so small drift of a parked vehicle still hits.
+ * Entries are spread over independently locked segments, each evicting its
+ * least recently used entries once geocoder.cacheSize is reached. With
+ * geocoder.cacheFile set, the cache is loaded on start and written back every
+ * geocoder.cacheSnapshotInterval seconds and on shutdown.
+ */
+public class GeocodeCache {
+  
+  private static final int MAGIC = 0x47434348; // GCCH
+  private static final int VERSION = 1;
+  private static final int SEGMENTS = 16;
+  private static final int MAX_PRECISION = 6;
+  
+  private final int precision;
+  private final double scale;
+  private final File file;
+  private final List<Map<Long, String>> segments = new ArrayList<>(SEGMENTS);
+  private boolean closed;
+  
+  private final Counter hits = Context.getMetricsRegistry().counter(
+      "geocoder.cache.hits");
+  private final Counter misses = Context.getMetricsRegistry().counter(
+      "geocoder.cache.misses");
+  
+  public GeocodeCache(Config config) {
+    precision = Math.min(config.getInteger("geocoder.cachePrecision", 4),
+        MAX_PRECISION);
+    scale = Math.pow(10, precision);
+    
+    final int segmentSize = Math.max(config.getInteger("geocoder.cacheSize")
+        / SEGMENTS, 1);
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments.add(new LinkedHashMap<Long, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+          return size() > segmentSize;
+        }
+      });
+    }
+    
+    Context.getMetricsRegistry().gauge("geocoder.cache.size", new Gauge() {
+      @Override
+      public long getValue() {
+        return size();
+      }
+    });
+    
+    if (config.hasKey("geocoder.cacheFile")) {
+      file = new File(config.getString("geocoder.cacheFile"));
+      load();
+      final long interval = config.getLong(
+          "geocoder.cacheSnapshotInterval", 300);
+      GlobalTimer.getTimer().newTimeout(new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+          synchronized (GeocodeCache.this) {
+            if (closed) {
+              return;
+            }
+            save();
+          }
+          GlobalTimer.getTimer().newTimeout(this, interval, TimeUnit.SECONDS);
+        }
+      }, interval, TimeUnit.SECONDS);
+    } else {
+      file = null;
+    }
+  }
+  
+  private long key(double latitude, double longitude) {
+    int latitudeCell = (int) Math.round(latitude * scale);
+    int longitudeCell = (int) Math.round(longitude * scale);
+    return (long) latitudeCell << 32 | longitudeCell & 0xFFFFFFFFL;
+  }
+  
+  private Map<Long, String> segment(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return segments.get((int) (hash >>> 60) & (SEGMENTS - 1));
+  }
+  
+  public String get(double latitude, double longitude) {
+    long key = key(latitude, longitude);
+    Map<Long, String> segment = segment(key);
+    String address;
+    synchronized (segment) {
+      address = segment.get(key);
+    }
+    if (address != null) {
+      hits.inc();
+    } else {
+      misses.inc();
+    }
+    return address;
+  }
+  
+  public void put(double latitude, double longitude, String address) {
+    put(key(latitude, longitude), address);
+  }
+  
+  private void put(long key, String address) {
+    Map<Long, String> segment = segment(key);
+    synchronized (segment) {
+      segment.put(key, address);
+    }
+  }
+  
+  public long size() {
+    long size = 0;
+    for (Map<Long, String> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+  
+  private void load() {
+    if (!file.exists()) {
+      return;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      if (input.readInt() != MAGIC || input.readByte() != VERSION
+          || input.readByte() != precision) {
+        Log.info("Geocode cache snapshot ignored - " + file);
+        return;
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        put(input.readLong(), input.readUTF());
+      }
+    } catch (IOException error) {
+      Log.warning(error);
+    }
+  }
+  
+  /**
+   * Write the final snapshot and stop periodic snapshots
+   */
+  public synchronized void close() {
+    if (!closed) {
+      save();
+      closed = true;
+    }
+  }
+  
+  /**
+   * Snapshots are serialised, they share one temporary file
+   */
+  public synchronized void save() {
+    if (file == null) {
+      return;
+    }
+    File temporary = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temporary)))) {
+      output.writeInt(MAGIC);
+      output.writeByte(VERSION);
+      output.writeByte(precision);
+      List<Map.Entry<Long, String>> entries = new ArrayList<>();
+      for (Map<Long, String> segment : segments) {
+        synchronized (segment) {
+          // least recently used first, so loading keeps the order
+          entries.addAll(new ArrayList<>(segment.entrySet()));
+        }
+      }
+      output.writeInt(entries.size());
+      for (Map.Entry<Long, String> entry : entries) {
+        output.writeLong(entry.getKey());
+        output.writeUTF(entry.getValue());
+      }
+    } catch (IOException error) {
+      Log.warning(error);
+      return;
+    }
+    try {
+      Files.move(temporary.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException error) {
+      Log.warning(error);
+    }
+  }
+  
+}
@@ -21,13 +21,12 @@ public class GeocodeFarmReverseGeocoder extends JsonReverseGeocoder {
   
   private static final String URL = "https://www.geocode.farm/v3/json/reverse/";
   
-  public GeocodeFarmReverseGeocoder(int cacheSize) {
-    super(URL + "?lat=%f&lon=%f&country=us&lang=en&count=1", cacheSize);
+  public GeocodeFarmReverseGeocoder() {
+    super(URL + "?lat=%f&lon=%f&country=us&lang=en&count=1");
   }
   
-  public GeocodeFarmReverseGeocoder(String key, int cacheSize) {
-    super(URL + "?lat=%f&lon=%f&country=us&lang=en&count=1&key=" + key,
-        cacheSize);
+  public GeocodeFarmReverseGeocoder(String key) {
+    super(URL + "?lat=%f&lon=%f&country=us&lang=en&count=1&key=" + key);
   }
   
   @Override
@@ -20,11 +20,11 @@ import javax.json.JsonObject;
 public class GisgraphyReverseGeocoder extends JsonReverseGeocoder {
   
   public GisgraphyReverseGeocoder() {
-    this("http://services.gisgraphy.com/reversegeocoding/search", 0);
+    this("http://services.gisgraphy.com/reversegeocoding/search");
   }
   
-  public GisgraphyReverseGeocoder(String url, int cacheSize) {
-    super(url + "?format=json&lat=%f&lng=%f&from=1&to=1", cacheSize);
+  public GisgraphyReverseGeocoder(String url) {
+    super(url + "?format=json&lat=%f&lng=%f&from=1&to=1");
   }
   
   @Override
@@ -22,17 +22,12 @@ import javax.json.JsonString;
 public class GoogleReverseGeocoder extends JsonReverseGeocoder {
   
   public GoogleReverseGeocoder() {
-    this(0);
+    super("http://maps.googleapis.com/maps/api/geocode/json?latlng=%f,%f");
   }
   
-  public GoogleReverseGeocoder(int cacheSize) {
-    super("http://maps.googleapis.com/maps/api/geocode/json?latlng=%f,%f",
-        cacheSize);
-  }
-  
-  public GoogleReverseGeocoder(String key, int cacheSize) {
+  public GoogleReverseGeocoder(String key) {
     super("https://maps.googleapis.com/maps/api/geocode/json?latlng=%f,%f&key="
-        + key, cacheSize);
+        + key);
   }
   
   @Override
@@ -15,11 +15,6 @@
  */
 package org.traccar.geocode;
 
-import java.util.AbstractMap;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
@@ -33,34 +28,14 @@ public abstract class JsonReverseGeocoder implements ReverseGeocoder {
   
   private final String url;
   
-  private Map<Map.Entry<Double, Double>, String> cache;
-  
-  public JsonReverseGeocoder(String url, final int cacheSize) {
+  public JsonReverseGeocoder(String url) {
     this.url = url;
-    if (cacheSize > 0) {
-      this.cache = Collections
-          .synchronizedMap(new LinkedHashMap<Map.Entry<Double, Double>, String>() {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry eldest) {
-              return size() > cacheSize;
-            }
-          });
-    }
   }
   
   @Override
   public void getAddress(final AddressFormat format, final double latitude,
       final double longitude, final ReverseGeocoderCallback callback) {
     
-    if (cache != null) {
-      String cachedAddress = cache.get(new AbstractMap.SimpleImmutableEntry<>(
-          latitude, longitude));
-      if (cachedAddress != null) {
-        callback.onResult(cachedAddress);
-        return;
-      }
-    }
-    
     Context.getAsyncHttpClient()
         .prepareGet(String.format(url, latitude, longitude))
         .execute(new AsyncCompletionHandler() {
@@ -70,12 +45,7 @@ public abstract class JsonReverseGeocoder implements ReverseGeocoder {
                 .getResponseBodyAsStream())) {
               Address address = parseAddress(reader.readObject());
               if (address != null) {
-                String formattedAddress = format.format(address);
-                if (cache != null) {
-                  cache.put(new AbstractMap.SimpleImmutableEntry<>(latitude,
-                      longitude), formattedAddress);
-                }
-                callback.onResult(formattedAddress);
+                callback.onResult(format.format(address));
               } else {
                 callback.onResult(null);
               }
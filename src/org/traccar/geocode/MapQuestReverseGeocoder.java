@@ -20,8 +20,8 @@ import javax.json.JsonObject;
 
 public class MapQuestReverseGeocoder extends JsonReverseGeocoder {
   
-  public MapQuestReverseGeocoder(String url, String key, int cacheSize) {
-    super(url + "?key=" + key + "&location=%f,%f", cacheSize);
+  public MapQuestReverseGeocoder(String url, String key) {
+    super(url + "?key=" + key + "&location=%f,%f");
   }
   
   @Override
@@ -20,12 +20,11 @@ import javax.json.JsonObject;
 public class NominatimReverseGeocoder extends JsonReverseGeocoder {
   
   public NominatimReverseGeocoder() {
-    this("http://nominatim.openstreetmap.org/reverse", 0);
+    this("http://nominatim.openstreetmap.org/reverse");
   }
   
-  public NominatimReverseGeocoder(String url, int cacheSize) {
-    super(url + "?format=json&lat=%f&lon=%f&zoom=18&addressdetails=1",
-        cacheSize);
+  public NominatimReverseGeocoder(String url) {
+    super(url + "?format=json&lat=%f&lon=%f&zoom=18&addressdetails=1");
   }
   
   @Override
@@ -0,0 +1,450 @@
+package org.traccar.geocode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.traccar.Config;
+import org.traccar.helper.DistanceCalculator;
+import org.traccar.helper.LocationTree;
+import org.traccar.helper.Log;
+
+/**
+ * Answers lookups from a local gazetteer held in a k-d tree.
+ *
+ * geocoder.file is either a GeoNames dump (cities1000.txt, allCountries.txt)
+ * or, when it ends with .csv, a comma separated file with a header naming
+ * the latitude, longitude and address columns (house, street, suburb,
+ * settlement, district, state, country, postcode). For GeoNames the state
+ * names are taken from geocoder.adminFile (admin1CodesASCII.txt) if set.
+ * Points further than geocoder.maxDistance meters away are not used.
+ *
+ * The places are kept in one buffer holding the coordinates, references into
+ * a table of distinct strings and the tree. With geocoder.indexFile set, the
+ * buffer is saved there and mapped on later starts without reading the
+ * gazetteer, as long as the size and modification times of the gazetteer and
+ * the admin file match those recorded in it.
+ */
+public class OfflineReverseGeocoder implements ReverseGeocoder {
+  
+  private static final String[] COLUMNS = { "house", "street", "suburb",
+      "settlement", "district", "state", "country", "postcode" };
+  
+  private static final int SETTLEMENT = 3;
+  private static final int STATE = 5;
+  private static final int COUNTRY = 6;
+  
+  private static final int MAGIC = 0x47454F49; // GEOI
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 48;
+  
+  private final double maxDistance;
+  
+  private final ByteBuffer buffer;
+  private final LocationTree tree;
+  private final int columns;
+  private final int width;
+  private final int longitudeOffset;
+  private final int referenceOffset;
+  private final int stringOffset;
+  private final int stringDataOffset;
+  
+  public OfflineReverseGeocoder(Config config) throws IOException {
+    File file = new File(config.getString("geocoder.file"));
+    String adminFile = config.getString("geocoder.adminFile");
+    String indexFile = config.getString("geocoder.indexFile");
+    maxDistance = config.getInteger("geocoder.maxDistance", 0);
+    
+    long[] signature = { file.length(), file.lastModified(),
+        adminFile != null ? new File(adminFile).lastModified() : 0 };
+    
+    ByteBuffer index = null;
+    if (indexFile != null) {
+      index = map(new File(indexFile), signature);
+    }
+    if (index == null) {
+      Loader loader = new Loader();
+      if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".csv")) {
+        loader.loadCsv(file);
+      } else {
+        loader.loadGeoNames(file, adminFile);
+      }
+      Log.info("[OfflineReverseGeocoder] Loaded {} places from {}, "
+          + "skipped {}", loader.count, file, loader.skipped);
+      index = loader.build(signature);
+      if (indexFile != null) {
+        try {
+          save(index, new File(indexFile));
+        } catch (IOException error) {
+          Log.warning(error);
+        }
+      }
+    } else {
+      Log.info("[OfflineReverseGeocoder] Mapped {} places from {}",
+          index.getInt(32), indexFile);
+    }
+    
+    buffer = index;
+    int count = buffer.getInt(32);
+    columns = buffer.getInt(36);
+    width = Integer.bitCount(columns);
+    longitudeOffset = HEADER_SIZE + count * 4;
+    referenceOffset = HEADER_SIZE + count * 8;
+    stringOffset = referenceOffset + count * width * 4;
+    stringDataOffset = stringOffset + (buffer.getInt(40) + 1) * 4;
+    
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(stringDataOffset + buffer.getInt(44));
+    tree = LocationTree.wrap(slice.slice());
+    if (tree.size() != count) {
+      throw new IOException("Invalid geocoder index " + indexFile);
+    }
+  }
+  
+  /**
+   * Returns the mapped index or null if it is missing, damaged or was built
+   * from different files. The header is checked before mapping, so a stale
+   * index is not left mapped while it is replaced.
+   */
+  private static ByteBuffer map(File file, long[] signature) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (RandomAccessFile input = new RandomAccessFile(file, "r");
+        FileChannel channel = input.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          return null;
+        }
+      }
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+          || header.getLong(8) != signature[0]
+          || header.getLong(16) != signature[1]
+          || header.getLong(24) != signature[2]) {
+        return null;
+      }
+      long count = header.getInt(32);
+      long strings = header.getInt(40);
+      long stringBytes = header.getInt(44);
+      long size = HEADER_SIZE + count * (8 + Integer.bitCount(
+          header.getInt(36)) * 4) + (strings + 1) * 4 + stringBytes;
+      if (count < 0 || strings < 0 || stringBytes < 0
+          || size > channel.size()) {
+        return null;
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException error) {
+      Log.warning(error);
+      return null;
+    }
+  }
+  
+  private static void save(ByteBuffer buffer, File file) throws IOException {
+    File temporary = new File(file.getPath() + ".tmp");
+    try (RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+        FileChannel channel = output.getChannel()) {
+      channel.truncate(0);
+      ByteBuffer data = buffer.duplicate();
+      data.clear();
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    }
+    Files.move(temporary.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+  
+  /**
+   * Splits a CSV line, unquoting fields in double quotes with "" standing
+   * for a quote. Quoted fields can not span lines.
+   */
+  private static String[] split(String line) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          value.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append(c);
+          i += 1;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    values.add(value.toString());
+    return values.toArray(new String[values.size()]);
+  }
+  
+  /**
+   * Reads a gazetteer and lays it out in an index buffer.
+   */
+  private static final class Loader {
+    
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    private int[] stringOffsets = new int[1024];
+    
+    private int columns;
+    private int width;
+    
+    private float[] latitudes = new float[1024];
+    private float[] longitudes = new float[1024];
+    private int[] references;
+    private int count;
+    private int skipped;
+    
+    private void setColumns(int columns) {
+      this.columns = columns;
+      width = Integer.bitCount(columns);
+      references = new int[latitudes.length * width];
+    }
+    
+    private int intern(String value) {
+      if (value == null || value.isEmpty()) {
+        return -1;
+      }
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = ids.size();
+        ids.put(value, id);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.write(bytes, 0, bytes.length);
+        if (id + 1 == stringOffsets.length) {
+          stringOffsets = Arrays.copyOf(stringOffsets, (id + 1) * 2);
+        }
+        stringOffsets[id + 1] = strings.size();
+      }
+      return id;
+    }
+    
+    /**
+     * Adds a place with the fields of the selected columns, indexed like
+     * COLUMNS.
+     */
+    private void add(String latitude, String longitude, String[] fields) {
+      float lat;
+      float lon;
+      try {
+        lat = Float.parseFloat(latitude);
+        lon = Float.parseFloat(longitude);
+      } catch (NumberFormatException error) {
+        skipped += 1;
+        return;
+      }
+      if (!(Math.abs(lat) <= 90 && Math.abs(lon) <= 180)) {
+        skipped += 1;
+        return;
+      }
+      if (count == latitudes.length) {
+        int length = count * 2;
+        latitudes = Arrays.copyOf(latitudes, length);
+        longitudes = Arrays.copyOf(longitudes, length);
+        references = Arrays.copyOf(references, length * width);
+      }
+      latitudes[count] = lat;
+      longitudes[count] = lon;
+      int offset = count * width;
+      for (int j = 0; j < COLUMNS.length; j++) {
+        if ((columns & 1 << j) != 0) {
+          references[offset++] = intern(fields[j]);
+        }
+      }
+      count += 1;
+    }
+    
+    private void loadGeoNames(File file, String adminFile)
+        throws IOException {
+      Map<String, String> states = new HashMap<>();
+      if (adminFile != null) {
+        try (BufferedReader reader = Files.newBufferedReader(
+            new File(adminFile).toPath(), StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            String[] values = line.split("\t");
+            if (values.length > 1) {
+              states.put(values[0], values[1]);
+            }
+          }
+        }
+      }
+      
+      setColumns(1 << SETTLEMENT | 1 << STATE | 1 << COUNTRY);
+      Map<String, String> countries = new HashMap<>();
+      String[] fields = new String[COLUMNS.length];
+      try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+          StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] values = line.split("\t");
+          if (values.length < 11) {
+            skipped += 1;
+            continue;
+          }
+          String code = values[8];
+          String country = countries.get(code);
+          if (country == null) {
+            country = new Locale("", code).getDisplayCountry(Locale.ENGLISH);
+            countries.put(code, country);
+          }
+          fields[SETTLEMENT] = values[1];
+          fields[STATE] = states.get(code + "." + values[10]);
+          fields[COUNTRY] = country;
+          add(values[4], values[5], fields);
+        }
+      }
+    }
+    
+    private void loadCsv(File file) throws IOException {
+      try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+          StandardCharsets.UTF_8)) {
+        String line = reader.readLine();
+        if (line == null) {
+          setColumns(0);
+          return;
+        }
+        
+        int latitudeIndex = -1;
+        int longitudeIndex = -1;
+        int[] indexes = new int[COLUMNS.length];
+        Arrays.fill(indexes, -1);
+        int present = 0;
+        String[] header = split(line);
+        for (int i = 0; i < header.length; i++) {
+          String name = header[i].trim().toLowerCase(Locale.ENGLISH);
+          if (name.equals("latitude")) {
+            latitudeIndex = i;
+          } else if (name.equals("longitude")) {
+            longitudeIndex = i;
+          } else {
+            for (int j = 0; j < COLUMNS.length; j++) {
+              if (name.equals(COLUMNS[j])) {
+                indexes[j] = i;
+                present |= 1 << j;
+              }
+            }
+          }
+        }
+        if (latitudeIndex < 0 || longitudeIndex < 0) {
+          throw new IOException("Missing latitude or longitude column in "
+              + file);
+        }
+        setColumns(present);
+        
+        String[] fields = new String[COLUMNS.length];
+        while ((line = reader.readLine()) != null) {
+          String[] values = split(line);
+          if (values.length < header.length) {
+            skipped += 1;
+            continue;
+          }
+          for (int j = 0; j < COLUMNS.length; j++) {
+            if (indexes[j] >= 0) {
+              fields[j] = values[indexes[j]].trim();
+            }
+          }
+          add(values[latitudeIndex], values[longitudeIndex], fields);
+        }
+      }
+    }
+    
+    private ByteBuffer build(long[] signature) throws IOException {
+      LocationTree tree = new LocationTree(longitudes, latitudes, count);
+      long size = HEADER_SIZE + (long) count * (8 + width * 4)
+          + (ids.size() + 1L) * 4 + strings.size() + tree.getByteSize();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Too many places for geocoder index");
+      }
+      
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      buffer.putInt(MAGIC).putInt(VERSION);
+      buffer.putLong(signature[0]).putLong(signature[1]).putLong(signature[2]);
+      buffer.putInt(count).putInt(columns).putInt(ids.size())
+          .putInt(strings.size());
+      buffer.asFloatBuffer().put(latitudes, 0, count);
+      buffer.position(buffer.position() + count * 4);
+      buffer.asFloatBuffer().put(longitudes, 0, count);
+      buffer.position(buffer.position() + count * 4);
+      buffer.asIntBuffer().put(references, 0, count * width);
+      buffer.position(buffer.position() + count * width * 4);
+      buffer.asIntBuffer().put(stringOffsets, 0, ids.size() + 1);
+      buffer.position(buffer.position() + (ids.size() + 1) * 4);
+      buffer.put(strings.toByteArray());
+      tree.write(buffer);
+      buffer.clear();
+      return buffer;
+    }
+    
+  }
+  
+  private String getString(int id) {
+    if (id < 0) {
+      return null;
+    }
+    int start = buffer.getInt(stringOffset + id * 4);
+    byte[] bytes = new byte[buffer.getInt(stringOffset + id * 4 + 4) - start];
+    ByteBuffer data = buffer.duplicate();
+    data.position(stringDataOffset + start);
+    data.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  private Address getAddress(int index) {
+    String[] fields = new String[COLUMNS.length];
+    int offset = referenceOffset + index * width * 4;
+    for (int j = 0; j < COLUMNS.length; j++) {
+      if ((columns & 1 << j) != 0) {
+        fields[j] = getString(buffer.getInt(offset));
+        offset += 4;
+      }
+    }
+    Address address = new Address();
+    address.setHouse(fields[0]);
+    address.setStreet(fields[1]);
+    address.setSuburb(fields[2]);
+    address.setSettlement(fields[3]);
+    address.setDistrict(fields[4]);
+    address.setState(fields[5]);
+    address.setCountry(fields[6]);
+    address.setPostcode(fields[7]);
+    return address;
+  }
+  
+  @Override
+  public void getAddress(AddressFormat format, double latitude,
+      double longitude, ReverseGeocoderCallback callback) {
+    int index = tree.findNearest((float) longitude, (float) latitude);
+    if (index < 0 || (maxDistance > 0 && DistanceCalculator.distance(
+        latitude, longitude, buffer.getFloat(HEADER_SIZE + index * 4),
+        buffer.getFloat(longitudeOffset + index * 4)) > maxDistance)) {
+      callback.onResult(null);
+    } else {
+      callback.onResult(format.format(getAddress(index)));
+    }
+  }
+  
+}
@@ -0,0 +1,185 @@
+package org.traccar.geocode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.GlobalTimer;
+import org.traccar.helper.Log;
+import org.traccar.helper.TokenBucket;
+import org.traccar.metrics.Counter;
+
+/**
+ * Limits requests sent to a geocoding provider.
+ *
+ * Cached addresses are returned without a request. Lookups for coordinates
+ * that are equal after rounding to geocoder.coalescePrecision decimal places
+ * share one request. At most geocoder.maxInFlight requests are outstanding
+ * and, with geocoder.rateLimit set, requests are paced by a token bucket of
+ * that many requests per second and geocoder.rateBurst capacity. Up to
+ * geocoder.backlog lookups wait for a slot, further lookups are answered
+ * without an address.
+ */
+public class ThrottledReverseGeocoder implements ReverseGeocoder {
+  
+  private final ReverseGeocoder geocoder;
+  private final GeocodeCache cache;
+  private final double scale;
+  private final int maxInFlight;
+  private final int backlog;
+  private final TokenBucket bucket;
+  
+  private final Map<String, Lookup> lookups = new HashMap<>();
+  private final Deque<Lookup> queue = new ArrayDeque<>();
+  private int inFlight;
+  private boolean scheduled;
+  
+  private final Counter coalesced = Context.getMetricsRegistry().counter(
+      "geocoder.coalesced");
+  private final Counter shed = Context.getMetricsRegistry().counter(
+      "geocoder.shed");
+  
+  private final class Lookup implements ReverseGeocoderCallback {
+    
+    private final String key;
+    private final AddressFormat format;
+    private final double latitude;
+    private final double longitude;
+    private final List<ReverseGeocoderCallback> callbacks = new ArrayList<>(1);
+    
+    private Lookup(String key, AddressFormat format, double latitude,
+        double longitude) {
+      this.key = key;
+      this.format = format;
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+    
+    @Override
+    public void onResult(String address) {
+      complete(this, address);
+    }
+    
+  }
+  
+  public ThrottledReverseGeocoder(ReverseGeocoder geocoder,
+      GeocodeCache cache, Config config) {
+    this.geocoder = geocoder;
+    this.cache = cache;
+    scale = Math.pow(10, config.getInteger("geocoder.coalescePrecision", 4));
+    maxInFlight = config.getInteger("geocoder.maxInFlight", 16);
+    backlog = config.getInteger("geocoder.backlog", 1000);
+    if (config.hasKey("geocoder.rateLimit")) {
+      bucket = new TokenBucket(Double.parseDouble(config.getString(
+          "geocoder.rateLimit")), config.getInteger("geocoder.rateBurst", 1));
+    } else {
+      bucket = null;
+    }
+  }
+  
+  @Override
+  public void getAddress(AddressFormat format, double latitude,
+      double longitude, ReverseGeocoderCallback callback) {
+    
+    if (cache != null) {
+      String address = cache.get(latitude, longitude);
+      if (address != null) {
+        callback.onResult(address);
+        return;
+      }
+    }
+    
+    String key = Math.round(latitude * scale) + ":"
+        + Math.round(longitude * scale);
+    
+    synchronized (this) {
+      Lookup lookup = lookups.get(key);
+      if (lookup != null) {
+        lookup.callbacks.add(callback);
+        coalesced.inc();
+        return;
+      }
+      if (queue.size() < backlog) {
+        lookup = new Lookup(key, format, latitude, longitude);
+        lookup.callbacks.add(callback);
+        lookups.put(key, lookup);
+        queue.add(lookup);
+        callback = null;
+      }
+    }
+    
+    if (callback != null) {
+      shed.inc();
+      callback.onResult(null);
+    } else {
+      dispatch();
+    }
+  }
+  
+  private synchronized List<Lookup> poll() {
+    List<Lookup> result = null;
+    while (inFlight < maxInFlight && !queue.isEmpty()) {
+      if (bucket != null && !bucket.tryAcquire()) {
+        if (!scheduled) {
+          scheduled = true;
+          GlobalTimer.getTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+              synchronized (ThrottledReverseGeocoder.this) {
+                scheduled = false;
+              }
+              dispatch();
+            }
+          }, Math.max(bucket.getDelay(), 1), TimeUnit.MILLISECONDS);
+        }
+        break;
+      }
+      if (result == null) {
+        result = new ArrayList<>();
+      }
+      result.add(queue.poll());
+      inFlight += 1;
+    }
+    return result;
+  }
+  
+  private void dispatch() {
+    List<Lookup> started = poll();
+    if (started != null) {
+      for (Lookup lookup : started) {
+        try {
+          geocoder.getAddress(lookup.format, lookup.latitude,
+              lookup.longitude, lookup);
+        } catch (RuntimeException error) {
+          Log.warning(error);
+          lookup.onResult(null);
+        }
+      }
+    }
+  }
+  
+  private void complete(Lookup lookup, String address) {
+    if (address != null && cache != null) {
+      cache.put(lookup.latitude, lookup.longitude, address);
+    }
+    List<ReverseGeocoderCallback> callbacks;
+    synchronized (this) {
+      lookups.remove(lookup.key);
+      inFlight -= 1;
+      callbacks = lookup.callbacks;
+    }
+    for (ReverseGeocoderCallback callback : callbacks) {
+      callback.onResult(address);
+    }
+    dispatch();
+  }
+  
+}
@@ -26,7 +26,10 @@ public class GeofenceCircle extends GeofenceGeometry {
   private double centerLongitude;
   private double radius;
   
+  private DistanceCalculator.Circle circle;
+  
   public GeofenceCircle() {
+    this(0, 0, 0);
   }
   
   public GeofenceCircle(String wkt) throws ParseException {
@@ -37,12 +40,12 @@ public class GeofenceCircle extends GeofenceGeometry {
     this.centerLatitude = latitude;
     this.centerLongitude = longitude;
     this.radius = radius;
+    circle = new DistanceCalculator.Circle(latitude, longitude, radius);
   }
   
   @Override
   public boolean containsPoint(double latitude, double longitude) {
-    return DistanceCalculator.distance(centerLatitude, centerLongitude,
-        latitude, longitude) <= radius;
+    return circle.contains(latitude, longitude);
   }
   
   @Override
@@ -91,5 +94,7 @@ public class GeofenceCircle extends GeofenceGeometry {
     } catch (NumberFormatException e) {
       throw new ParseException(commaTokens[1] + " is not a double", 0);
     }
+    circle = new DistanceCalculator.Circle(centerLatitude, centerLongitude,
+        radius);
   }
 }
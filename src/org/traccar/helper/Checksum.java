@@ -94,6 +94,7 @@ public final class Checksum {
   public static final String CRC16_AUG_CCITT = "AUG-CCITT";
   public static final String CRC16_GENIBUS = "GENIBUS";
   public static final String CRC16_MCRF4XX = "MCRF4XX";
+  public static final String CRC16_IBM = "IBM";
   
   private static int crc16Unreflected(ByteBuffer buf, int crcIn, int[] table) {
     int crc16 = crcIn;
@@ -111,6 +112,21 @@ public final class Checksum {
     return crc16 & 0xFFFF;
   }
   
+  private static int crc16Ibm(ByteBuffer buf) {
+    int crc16 = 0;
+    while (buf.hasRemaining()) {
+      crc16 ^= buf.get() & 0xff;
+      for (int i = 0; i < 8; i++) {
+        if ((crc16 & 1) != 0) {
+          crc16 = (crc16 >>> 1) ^ 0xA001;
+        } else {
+          crc16 >>>= 1;
+        }
+      }
+    }
+    return crc16 & 0xFFFF;
+  }
+  
   public static int crc16(String type, ByteBuffer buf) {
     switch (type) {
     case CRC16_X25:
@@ -127,6 +143,8 @@ public final class Checksum {
       return crc16Unreflected(buf, 0xFFFF, CRC16_CCITT_TABLE) ^ 0xFFFF;
     case CRC16_MCRF4XX:
       return crc16Reflected(buf, 0xFFFF, CRC16_CCITT_TABLE_REVERSE);
+    case CRC16_IBM:
+      return crc16Ibm(buf);
     default:
       throw new UnsupportedOperationException(type);
     }
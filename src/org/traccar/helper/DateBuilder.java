@@ -41,6 +41,12 @@ public class DateBuilder {
     calendar.setTimeInMillis(time.getTime());
   }
   
+  public DateBuilder reset() {
+    calendar.clear();
+    calendar.setTimeInMillis(0);
+    return this;
+  }
+  
   public DateBuilder setYear(int year) {
     if (year < 100) {
       year += 2000;
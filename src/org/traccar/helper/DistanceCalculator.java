@@ -23,15 +23,151 @@ public final class DistanceCalculator {
   private static final double EQUATORIAL_EARTH_RADIUS = 6378.1370;
   private static final double DEG_TO_RAD = Math.PI / 180;
   
+  private static final double RADIUS = EQUATORIAL_EARTH_RADIUS * 1000;
+  
+  private static double haversine(double dlat, double dlong, double cos1,
+      double cos2) {
+    double sinLat = Math.sin(dlat / 2);
+    double sinLong = Math.sin(dlong / 2);
+    double a = sinLat * sinLat + cos1 * cos2 * sinLong * sinLong;
+    return 2 * RADIUS * Math.asin(Math.min(Math.sqrt(a), 1));
+  }
+  
+  /**
+   * Great circle distance in meters
+   */
   public static double distance(double lat1, double lon1, double lat2,
       double lon2) {
-    double dlong = (lon2 - lon1) * DEG_TO_RAD;
-    double dlat = (lat2 - lat1) * DEG_TO_RAD;
-    double a = Math.pow(Math.sin(dlat / 2), 2) + Math.cos(lat1 * DEG_TO_RAD)
-        * Math.cos(lat2 * DEG_TO_RAD) * Math.pow(Math.sin(dlong / 2), 2);
-    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-    double d = EQUATORIAL_EARTH_RADIUS * c;
-    return d * 1000;
+    return haversine((lat2 - lat1) * DEG_TO_RAD, (lon2 - lon1) * DEG_TO_RAD,
+        Math.cos(lat1 * DEG_TO_RAD), Math.cos(lat2 * DEG_TO_RAD));
+  }
+  
+  private static double normalizeLongitude(double delta) {
+    if (delta > 180) {
+      return delta - 360;
+    } else if (delta < -180) {
+      return delta + 360;
+    }
+    return delta;
+  }
+  
+  /**
+   * Equirectangular distance in meters, projected at the mean latitude.
+   *
+   * Within 80 degrees of the equator the relative error against
+   * {@link #distance} stays below 0.01% for hops up to 50 km and below 0.15%
+   * up to 200 km, so it is meant for consecutive positions and thresholds,
+   * not for long legs.
+   */
+  public static double distanceApproximate(double lat1, double lon1,
+      double lat2, double lon2) {
+    double x = normalizeLongitude(lon2 - lon1) * DEG_TO_RAD
+        * Math.cos((lat1 + lat2) / 2 * DEG_TO_RAD);
+    double y = (lat2 - lat1) * DEG_TO_RAD;
+    return RADIUS * Math.sqrt(x * x + y * y);
+  }
+  
+  /**
+   * Distances in meters between consecutive points, result[i] being the leg
+   * from point i to point i + 1. Each latitude cosine is computed once.
+   */
+  public static void distances(double[] latitudes, double[] longitudes,
+      int count, double[] result) {
+    if (count < 2) {
+      return;
+    }
+    double cos1 = Math.cos(latitudes[0] * DEG_TO_RAD);
+    for (int i = 1; i < count; i++) {
+      double cos2 = Math.cos(latitudes[i] * DEG_TO_RAD);
+      result[i - 1] = haversine((latitudes[i] - latitudes[i - 1]) * DEG_TO_RAD,
+          (longitudes[i] - longitudes[i - 1]) * DEG_TO_RAD, cos1, cos2);
+      cos1 = cos2;
+    }
+  }
+  
+  /**
+   * Length in meters of the track through the first count points
+   */
+  public static double totalDistance(double[] latitudes, double[] longitudes,
+      int count) {
+    double total = 0;
+    if (count < 2) {
+      return total;
+    }
+    double cos1 = Math.cos(latitudes[0] * DEG_TO_RAD);
+    for (int i = 1; i < count; i++) {
+      double cos2 = Math.cos(latitudes[i] * DEG_TO_RAD);
+      total += haversine((latitudes[i] - latitudes[i - 1]) * DEG_TO_RAD,
+          (longitudes[i] - longitudes[i - 1]) * DEG_TO_RAD, cos1, cos2);
+      cos1 = cos2;
+    }
+    return total;
+  }
+  
+  /**
+   * Circle containment test without trigonometry for most points.
+   *
+   * Points are compared by squared equirectangular distance, with the cosine
+   * of the mean latitude expanded around the center. Only points within the
+   * error margin of the boundary fall back to {@link #distance}, so the result
+   * is the same as comparing great circle distances.
+   */
+  public static final class Circle {
+    
+    // covers the approximation error up to 200 km
+    private static final double MARGIN = 0.002;
+    private static final double MAX_RADIUS = 100000;
+    private static final double MAX_LATITUDE = 80;
+    
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    
+    private final boolean approximate;
+    private final double cos;
+    private final double sin;
+    private final double inner;
+    private final double outer;
+    private final double maxDeltaLatitude;
+    
+    public Circle(double latitude, double longitude, double radius) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.radius = radius;
+      
+      approximate = radius <= MAX_RADIUS
+          && Math.abs(latitude) <= MAX_LATITUDE;
+      cos = Math.cos(latitude * DEG_TO_RAD);
+      sin = Math.sin(latitude * DEG_TO_RAD);
+      double scaled = radius / RADIUS;
+      inner = scaled * scaled * (1 - MARGIN) * (1 - MARGIN);
+      outer = scaled * scaled * (1 + MARGIN) * (1 + MARGIN);
+      maxDeltaLatitude = scaled * (1 + MARGIN);
+    }
+    
+    public boolean contains(double lat, double lon) {
+      if (!approximate) {
+        return distance(latitude, longitude, lat, lon) <= radius;
+      }
+      
+      // the meridian arc never exceeds the great circle distance
+      double y = (lat - latitude) * DEG_TO_RAD;
+      if (Math.abs(y) > maxDeltaLatitude) {
+        return false;
+      }
+      
+      double h = y / 2;
+      double cosMean = cos * (1 - h * h / 2) - sin * h;
+      double x = normalizeLongitude(lon - longitude) * DEG_TO_RAD * cosMean;
+      double squared = x * x + y * y;
+      if (squared <= inner) {
+        return true;
+      } else if (squared >= outer) {
+        return false;
+      }
+      return distance(latitude, longitude, lat, lon) <= radius;
+    }
+    
   }
   
 }
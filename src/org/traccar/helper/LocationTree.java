@@ -15,16 +15,22 @@
  */
 package org.traccar.helper;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
+/**
+ * Two dimensional k-d tree stored as flat arrays.
+ *
+ * Points are ordered so that the median of every range is its middle element,
+ * which removes the need for child references. The coordinates and point
+ * identifiers live in a single buffer that can be written into a larger file
+ * and wrapped back without rebuilding. Lookups do not allocate.
+ */
 public class LocationTree {
   
   public static class Item {
     
-    private Item left, right;
     private float x, y;
     private String data;
     
@@ -42,85 +48,197 @@ public class LocationTree {
       return data;
     }
     
-    private float squaredDistance(Item item) {
-      return (x - item.x) * (x - item.x) + (y - item.y) * (y - item.y);
+  }
+  
+  private static final int MAGIC = 0x4C545245; // LTRE
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int yOffset;
+  private final int idOffset;
+  
+  private List<? extends Item> items;
+  
+  private LocationTree(ByteBuffer buffer, int size) {
+    this.buffer = buffer;
+    this.size = size;
+    yOffset = HEADER_SIZE + size * 4;
+    idOffset = HEADER_SIZE + size * 8;
+  }
+  
+  public LocationTree(List<? extends Item> items) {
+    this(build(coordinates(items, true), coordinates(items, false),
+        items.size()), items.size());
+    this.items = items;
+  }
+  
+  /**
+   * Builds a tree of the first count points, identified by their index.
+   */
+  public LocationTree(float[] x, float[] y, int count) {
+    this(build(x, y, count), count);
+  }
+  
+  private static float[] coordinates(List<? extends Item> items, boolean x) {
+    float[] result = new float[items.size()];
+    for (int i = 0; i < result.length; i++) {
+      Item item = items.get(i);
+      result[i] = x ? item.x : item.y;
+    }
+    return result;
+  }
+  
+  private static ByteBuffer build(float[] x, float[] y, int count) {
+    float[] xs = new float[count];
+    float[] ys = new float[count];
+    int[] ids = new int[count];
+    System.arraycopy(x, 0, xs, 0, count);
+    System.arraycopy(y, 0, ys, 0, count);
+    for (int i = 0; i < count; i++) {
+      ids[i] = i;
     }
+    build(xs, ys, ids, 0, count, 0);
     
-    private float axisSquaredDistance(Item item, int axis) {
-      if (axis == 0) {
-        return (x - item.x) * (x - item.x);
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 12);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(count);
+    buffer.asFloatBuffer().put(xs);
+    buffer.position(HEADER_SIZE + count * 4);
+    buffer.asFloatBuffer().put(ys);
+    buffer.position(HEADER_SIZE + count * 8);
+    buffer.asIntBuffer().put(ids);
+    buffer.clear();
+    return buffer;
+  }
+  
+  private static void build(float[] x, float[] y, int[] id, int lo, int hi,
+      int axis) {
+    while (hi - lo > 1) {
+      int middle = (lo + hi) >>> 1;
+      select(axis == 0 ? x : y, x, y, id, lo, hi - 1, middle);
+      build(x, y, id, lo, middle, axis ^ 1);
+      lo = middle + 1;
+      axis ^= 1;
+    }
+  }
+  
+  private static void select(float[] keys, float[] x, float[] y, int[] id,
+      int left, int right, int k) {
+    while (right > left) {
+      float pivot = keys[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i += 1;
+        }
+        while (keys[j] > pivot) {
+          j -= 1;
+        }
+        if (i <= j) {
+          swap(x, i, j);
+          swap(y, i, j);
+          int t = id[i];
+          id[i] = id[j];
+          id[j] = t;
+          i += 1;
+          j -= 1;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
       } else {
-        return (y - item.y) * (y - item.y);
+        return;
       }
     }
-    
   }
   
-  private Item root;
+  private static void swap(float[] values, int i, int j) {
+    float t = values[i];
+    values[i] = values[j];
+    values[j] = t;
+  }
   
-  private ArrayList<Comparator<Item>> comparators = new ArrayList<>();
+  /**
+   * Uses a tree written with write, for example a slice of a larger file.
+   */
+  public static LocationTree wrap(ByteBuffer buffer) throws IOException {
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION) {
+      throw new IOException("Invalid location index");
+    }
+    int size = buffer.getInt(8);
+    if (size < 0 || buffer.limit() != HEADER_SIZE + (long) size * 12) {
+      throw new IOException("Truncated location index");
+    }
+    return new LocationTree(buffer, size);
+  }
   
-  public LocationTree(List<Item> items) {
-    comparators.add(new Comparator<Item>() {
-      @Override
-      public int compare(Item o1, Item o2) {
-        return Float.compare(o1.x, o2.x);
-      }
-    });
-    comparators.add(new Comparator<Item>() {
-      @Override
-      public int compare(Item o1, Item o2) {
-        return Float.compare(o1.y, o2.y);
-      }
-    });
-    root = createTree(items, 0);
+  public int getByteSize() {
+    return buffer.limit();
   }
   
-  private Item createTree(List<Item> items, int depth) {
-    if (items.isEmpty()) {
-      return null;
+  public void write(ByteBuffer target) {
+    ByteBuffer data = buffer.duplicate();
+    data.clear();
+    target.put(data);
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Returns the index of the nearest point or -1 if the tree is empty.
+   */
+  public int findNearest(float x, float y) {
+    if (size == 0) {
+      return -1;
     }
-    Collections.sort(items, comparators.get(depth % 2));
-    int currentIndex = items.size() / 2;
-    Item median = items.get(currentIndex);
-    median.left = createTree(new ArrayList<>(items.subList(0, currentIndex)),
-        depth + 1);
-    median.right = createTree(
-        new ArrayList<>(items.subList(currentIndex + 1, items.size())),
-        depth + 1);
-    return median;
+    return buffer.getInt(idOffset + findNearest(0, size, 0, x, y, -1) * 4);
   }
   
   public Item findNearest(Item search) {
-    return findNearest(root, search, 0);
+    int index = findNearest(search.x, search.y);
+    return index >= 0 ? items.get(index) : null;
   }
   
-  private Item findNearest(Item current, Item search, int depth) {
-    int direction = comparators.get(depth % 2).compare(search, current);
-    
-    Item next, other;
-    if (direction < 0) {
-      next = current.left;
-      other = current.right;
-    } else {
-      next = current.right;
-      other = current.left;
+  private float squaredDistance(int i, float x, float y) {
+    float dx = x - buffer.getFloat(HEADER_SIZE + i * 4);
+    float dy = y - buffer.getFloat(yOffset + i * 4);
+    return dx * dx + dy * dy;
+  }
+  
+  private int findNearest(int lo, int hi, int axis, float x, float y,
+      int best) {
+    if (lo >= hi) {
+      return best;
     }
-    
-    Item best = current;
-    if (next != null) {
-      best = findNearest(next, search, depth + 1);
+    int middle = (lo + hi) >>> 1;
+    if (best < 0
+        || squaredDistance(middle, x, y) < squaredDistance(best, x, y)) {
+      best = middle;
     }
     
-    if (current.squaredDistance(search) < best.squaredDistance(search)) {
-      best = current;
+    float delta;
+    if (axis == 0) {
+      delta = x - buffer.getFloat(HEADER_SIZE + middle * 4);
+    } else {
+      delta = y - buffer.getFloat(yOffset + middle * 4);
     }
-    if (other != null
-        && current.axisSquaredDistance(search, depth % 2) < best
-            .squaredDistance(search)) {
-      Item possibleBest = findNearest(other, search, depth + 1);
-      if (possibleBest.squaredDistance(search) < best.squaredDistance(search)) {
-        best = possibleBest;
+    
+    if (delta < 0) {
+      best = findNearest(lo, middle, axis ^ 1, x, y, best);
+      if (delta * delta < squaredDistance(best, x, y)) {
+        best = findNearest(middle + 1, hi, axis ^ 1, x, y, best);
+      }
+    } else {
+      best = findNearest(middle + 1, hi, axis ^ 1, x, y, best);
+      if (delta * delta < squaredDistance(best, x, y)) {
+        best = findNearest(lo, middle, axis ^ 1, x, y, best);
       }
     }
     
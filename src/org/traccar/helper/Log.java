@@ -23,6 +23,7 @@ import java.lang.management.RuntimeMXBean;
 import java.nio.charset.Charset;
 
 import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.DailyRollingFileAppender;
 import org.apache.log4j.Layout;
 import org.apache.log4j.Level;
@@ -30,6 +31,8 @@ import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 import org.apache.log4j.varia.NullAppender;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.logging.AbstractInternalLogger;
@@ -49,6 +52,8 @@ public final class Log {
   private static final String STACK_PACKAGE = "org.traccar";
   private static final int STACK_LIMIT = 3;
   
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+  
   private static Logger logger = null;
   
   public static void setupLogger(Config config) throws IOException {
@@ -58,6 +63,17 @@ public final class Log {
     Appender appender = new DailyRollingFileAppender(layout,
         config.getString("logger.file"), "'.'yyyyMMdd");
     
+    // file writes happen on a background thread, events are discarded and
+    // summarized when the buffer is full instead of blocking i/o threads
+    if (!config.hasKey("logger.async") || config.getBoolean("logger.async")) {
+      AsyncAppender asyncAppender = new AsyncAppender();
+      asyncAppender.setBufferSize(config.getInteger("logger.bufferSize",
+          DEFAULT_BUFFER_SIZE));
+      asyncAppender.setBlocking(false);
+      asyncAppender.addAppender(appender);
+      appender = asyncAppender;
+    }
+    
     LogManager.resetConfiguration();
     LogManager.getRootLogger().addAppender(new NullAppender());
     
@@ -86,6 +102,21 @@ public final class Log {
     return logger;
   }
   
+  /**
+   * Flush pending asynchronous events
+   */
+  public static void shutdown() {
+    LogManager.shutdown();
+  }
+  
+  public static boolean isDebugEnabled() {
+    return getLogger().isDebugEnabled();
+  }
+  
+  public static boolean isInfoEnabled() {
+    return getLogger().isInfoEnabled();
+  }
+  
   public static void logSystemInfo() {
     try {
       OperatingSystemMXBean operatingSystemBean = ManagementFactory
@@ -143,10 +174,88 @@ public final class Log {
     getLogger().info(msg);
   }
   
+  public static void info(String pattern, Object arg) {
+    if (isInfoEnabled()) {
+      getLogger().info(format(pattern, arg));
+    }
+  }
+  
+  public static void info(String pattern, Object arg1, Object arg2) {
+    if (isInfoEnabled()) {
+      getLogger().info(format(pattern, arg1, arg2));
+    }
+  }
+  
+  public static void info(String pattern, Object... args) {
+    if (isInfoEnabled()) {
+      getLogger().info(format(pattern, args));
+    }
+  }
+  
   public static void debug(String msg) {
     getLogger().debug(msg);
   }
   
+  public static void debug(String pattern, Object arg) {
+    if (isDebugEnabled()) {
+      getLogger().debug(format(pattern, arg));
+    }
+  }
+  
+  public static void debug(String pattern, Object arg1, Object arg2) {
+    if (isDebugEnabled()) {
+      getLogger().debug(format(pattern, arg1, arg2));
+    }
+  }
+  
+  public static void debug(String pattern, Object... args) {
+    if (isDebugEnabled()) {
+      getLogger().debug(format(pattern, args));
+    }
+  }
+  
+  /**
+   * Replace each {} in pattern with next argument
+   */
+  public static String format(String pattern, Object... args) {
+    StringBuilder s = new StringBuilder(pattern.length() + 16 * args.length);
+    int start = 0;
+    for (Object arg : args) {
+      int index = pattern.indexOf("{}", start);
+      if (index < 0) {
+        break;
+      }
+      s.append(pattern, start, index).append(arg);
+      start = index + 2;
+    }
+    s.append(pattern, start, pattern.length());
+    return s.toString();
+  }
+  
+  /**
+   * Hex dump of buffer readable bytes, produced only when formatted
+   */
+  public static Object hex(final ChannelBuffer buffer) {
+    return new Object() {
+      @Override
+      public String toString() {
+        return ChannelBuffers.hexDump(buffer);
+      }
+    };
+  }
+  
+  /**
+   * Channel identifier as eight upper case hex digits
+   */
+  public static String formatId(int id) {
+    char[] chars = new char[8];
+    for (int i = 7; i >= 0; i--) {
+      chars[i] = Character.toUpperCase(Character.forDigit(id & 0xf, 16));
+      id >>>= 4;
+    }
+    return new String(chars);
+  }
+  
   public static String header(ChannelEvent channelEvent) {
     String header = "";
     if (channelEvent == null) {
@@ -161,7 +270,7 @@ public final class Log {
     if (channel == null) {
       return header;
     }
-    header = String.format("[%08X] ", channel.getId());
+    header = "[" + formatId(channel.getId()) + "] ";
     return header;
   }
   
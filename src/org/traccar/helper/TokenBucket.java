@@ -0,0 +1,50 @@
+package org.traccar.helper;
+
+/**
+ * Rate limiter allowing bursts up to its capacity
+ */
+public class TokenBucket {
+  
+  private final double rate;
+  private final double capacity;
+  
+  private double tokens;
+  private long updated = System.nanoTime();
+  
+  /**
+   * @param rate tokens added per second
+   * @param capacity maximum number of stored tokens
+   */
+  public TokenBucket(double rate, int capacity) {
+    this.rate = rate / 1000000000.0;
+    this.capacity = Math.max(capacity, 1);
+    this.tokens = this.capacity;
+  }
+  
+  private void refill() {
+    long time = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (time - updated) * rate);
+    updated = time;
+  }
+  
+  public synchronized boolean tryAcquire() {
+    refill();
+    if (tokens >= 1) {
+      tokens -= 1;
+      return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Milliseconds until the next token is available
+   */
+  public synchronized long getDelay() {
+    refill();
+    if (tokens >= 1) {
+      return 0;
+    }
+    return (long) Math.ceil((1 - tokens) / rate / 1000000.0);
+  }
+  
+}
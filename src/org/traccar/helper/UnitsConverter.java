@@ -36,4 +36,8 @@ public final class UnitsConverter {
     return value * 0.0194384449;
   }
   
+  public static double kphFromKnots(double value) {
+    return value * 1.852;
+  }
+  
 }
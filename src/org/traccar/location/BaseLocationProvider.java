@@ -52,4 +52,15 @@ public abstract class BaseLocationProvider implements LocationProvider {
   protected abstract void getLocation(int mcc, int mnc, long lac, long cid,
       LocationProviderCallback callback);
   
+  /**
+   * Reports a cell the provider answered to be unknown.
+   */
+  protected static void notFound(LocationProviderCallback callback) {
+    if (callback instanceof CellLookupCallback) {
+      ((CellLookupCallback) callback).onNotFound();
+    } else {
+      callback.onFailure();
+    }
+  }
+  
 }
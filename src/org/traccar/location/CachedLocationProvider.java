@@ -0,0 +1,212 @@
+package org.traccar.location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+import org.traccar.metrics.Gauge;
+
+/**
+ * Caches cell lookups of another provider.
+ *
+ * Resolved cells are kept for location.cacheTtl seconds and cells the provider
+ * reported as unknown for location.negativeTtl seconds, while failed lookups
+ * are not cached. Entries are kept in independently locked segments that evict
+ * their least recently used entries once location.cacheSize is reached.
+ * Concurrent lookups of the same cell share one provider request.
+ */
+public class CachedLocationProvider extends BaseLocationProvider {
+  
+  private static final int SEGMENTS = 16;
+  
+  private final BaseLocationProvider provider;
+  private final long ttl;
+  private final long negativeTtl;
+  
+  private final List<Map<Long, CacheEntry>> segments =
+      new ArrayList<>(SEGMENTS);
+  private final Map<Long, Lookup> lookups = new HashMap<>();
+  
+  private final Counter hits = Context.getMetricsRegistry().counter(
+      "location.cache.hits");
+  private final Counter misses = Context.getMetricsRegistry().counter(
+      "location.cache.misses");
+  private final Counter coalesced = Context.getMetricsRegistry().counter(
+      "location.coalesced");
+  
+  private static final class CacheEntry {
+    
+    private final double latitude;
+    private final double longitude;
+    private final boolean found;
+    private final long expires;
+    
+    private CacheEntry(double latitude, double longitude, boolean found,
+        long expires) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.found = found;
+      this.expires = expires;
+    }
+    
+  }
+  
+  private final class Lookup implements CellLookupCallback {
+    
+    private final long key;
+    private final List<LocationProviderCallback> callbacks = new ArrayList<>(1);
+    
+    private Lookup(long key) {
+      this.key = key;
+    }
+    
+    @Override
+    public void onSuccess(double latitude, double longitude) {
+      for (LocationProviderCallback callback : complete(this, new CacheEntry(
+          latitude, longitude, true, System.currentTimeMillis() + ttl))) {
+        callback.onSuccess(latitude, longitude);
+      }
+    }
+    
+    @Override
+    public void onNotFound() {
+      CacheEntry entry = null;
+      if (negativeTtl > 0) {
+        entry = new CacheEntry(0, 0, false,
+            System.currentTimeMillis() + negativeTtl);
+      }
+      for (LocationProviderCallback callback : complete(this, entry)) {
+        notFound(callback);
+      }
+    }
+    
+    @Override
+    public void onFailure() {
+      // errors and rate limits are not cached, the next lookup retries
+      for (LocationProviderCallback callback : complete(this, null)) {
+        callback.onFailure();
+      }
+    }
+    
+  }
+  
+  public CachedLocationProvider(BaseLocationProvider provider, Config config) {
+    this.provider = provider;
+    ttl = config.getLong("location.cacheTtl", 7 * 86400) * 1000;
+    negativeTtl = config.getLong("location.negativeTtl", 600) * 1000;
+    
+    final int segmentSize = Math.max(config.getInteger("location.cacheSize",
+        10000) / SEGMENTS, 1);
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments.add(new LinkedHashMap<Long, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<Long, CacheEntry> eldest) {
+          return size() > segmentSize;
+        }
+      });
+    }
+    
+    Context.getMetricsRegistry().gauge("location.cache.size", new Gauge() {
+      @Override
+      public long getValue() {
+        long size = 0;
+        for (Map<Long, CacheEntry> segment : segments) {
+          synchronized (segment) {
+            size += segment.size();
+          }
+        }
+        return size;
+      }
+    });
+  }
+  
+  private Map<Long, CacheEntry> segment(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return segments.get((int) (hash >>> 60) & (SEGMENTS - 1));
+  }
+  
+  private CacheEntry get(long key) {
+    Map<Long, CacheEntry> segment = segment(key);
+    synchronized (segment) {
+      CacheEntry entry = segment.get(key);
+      if (entry != null && entry.expires < System.currentTimeMillis()) {
+        segment.remove(key);
+        entry = null;
+      }
+      return entry;
+    }
+  }
+  
+  private void put(long key, CacheEntry entry) {
+    Map<Long, CacheEntry> segment = segment(key);
+    synchronized (segment) {
+      segment.put(key, entry);
+    }
+  }
+  
+  /**
+   * Stores the entry, if any, and returns the callbacks waiting for the
+   * lookup, or none if it was already completed.
+   */
+  private synchronized List<LocationProviderCallback> complete(Lookup lookup,
+      CacheEntry entry) {
+    if (lookups.get(lookup.key) != lookup) {
+      return Collections.emptyList();
+    }
+    if (entry != null) {
+      put(lookup.key, entry);
+    }
+    lookups.remove(lookup.key);
+    return lookup.callbacks;
+  }
+  
+  @Override
+  protected void getLocation(int mcc, int mnc, long lac, long cid,
+      LocationProviderCallback callback) {
+    long key = CellDatabase.key(mcc, mnc, lac, cid);
+    if (key == 0) {
+      provider.getLocation(mcc, mnc, lac, cid, callback);
+      return;
+    }
+    
+    CacheEntry entry = get(key);
+    if (entry != null) {
+      hits.inc();
+      if (entry.found) {
+        callback.onSuccess(entry.latitude, entry.longitude);
+      } else {
+        notFound(callback);
+      }
+      return;
+    }
+    misses.inc();
+    
+    Lookup lookup;
+    synchronized (this) {
+      lookup = lookups.get(key);
+      if (lookup != null) {
+        lookup.callbacks.add(callback);
+        coalesced.inc();
+        return;
+      }
+      lookup = new Lookup(key);
+      lookup.callbacks.add(callback);
+      lookups.put(key, lookup);
+    }
+    try {
+      provider.getLocation(mcc, mnc, lac, cid, lookup);
+    } catch (RuntimeException error) {
+      Log.warning(error);
+      lookup.onFailure();
+    }
+  }
+  
+}
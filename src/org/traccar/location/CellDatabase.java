@@ -0,0 +1,229 @@
+package org.traccar.location;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.traccar.helper.Log;
+
+/**
+ * Read only hash index of cell tower locations in a memory mapped file.
+ *
+ * Slots hold the packed cell key and the tower coordinates and are probed
+ * linearly. The file is built from an OpenCellID or Mozilla Location Service
+ * CSV export, matching the columns by their header names.
+ */
+public final class CellDatabase {
+  
+  private static final int MAGIC = 0x43454C4C; // CELL
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int SLOT_SIZE = 16;
+  private static final int MAX_CAPACITY = 1 << 26;
+  
+  private final ByteBuffer buffer;
+  private final int mask;
+  private final int size;
+  
+  private CellDatabase(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.mask = buffer.getInt(8) - 1;
+    this.size = buffer.getInt(12);
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Packs the cell identity into a non zero key, or returns 0 for values that
+   * do not fit.
+   */
+  public static long key(int mcc, int mnc, long lac, long cid) {
+    if (mcc <= 0 || mcc > 0x3FF || mnc < 0 || mnc > 0x3FF || lac < 0
+        || lac > 0xFFFF || cid < 0 || cid > 0xFFFFFFF) {
+      return 0;
+    }
+    return (long) mcc << 54 | (long) mnc << 44 | lac << 28 | cid;
+  }
+  
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+  
+  /**
+   * Returns the slot of the cell or -1 if it is not in the database.
+   */
+  public int find(long key) {
+    if (key == 0) {
+      return -1;
+    }
+    int slot = hash(key) & mask;
+    while (true) {
+      long value = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+      if (value == key) {
+        return slot;
+      } else if (value == 0) {
+        return -1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+  
+  public double getLatitude(int slot) {
+    return buffer.getFloat(HEADER_SIZE + slot * SLOT_SIZE + 8);
+  }
+  
+  public double getLongitude(int slot) {
+    return buffer.getFloat(HEADER_SIZE + slot * SLOT_SIZE + 12);
+  }
+  
+  public static CellDatabase open(File file) throws IOException {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r");
+        FileChannel channel = input.getChannel()) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION) {
+        throw new IOException("Invalid cell database " + file);
+      }
+      int capacity = buffer.getInt(8);
+      if (Integer.bitCount(capacity) != 1
+          || buffer.limit() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+        throw new IOException("Truncated cell database " + file);
+      }
+      return new CellDatabase(buffer);
+    }
+  }
+  
+  private static int column(String[] header, String... names)
+      throws IOException {
+    for (int i = 0; i < header.length; i++) {
+      String name = header[i].trim().toLowerCase(Locale.ENGLISH);
+      for (String candidate : names) {
+        if (name.equals(candidate)) {
+          return i;
+        }
+      }
+    }
+    throw new IOException("Missing column " + names[0]);
+  }
+  
+  /**
+   * Imports a CSV export into a database file, replacing it atomically.
+   */
+  public static void build(File source, File file) throws IOException {
+    long[] keys = new long[1024];
+    float[] coordinates = new float[2048];
+    int count = 0;
+    int skipped = 0;
+    
+    try (BufferedReader reader = Files.newBufferedReader(source.toPath(),
+        StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (line == null) {
+        throw new IOException("Empty cell export " + source);
+      }
+      String[] header = line.split(",");
+      int mccIndex = column(header, "mcc");
+      int mncIndex = column(header, "net", "mnc");
+      int lacIndex = column(header, "area", "lac");
+      int cidIndex = column(header, "cell", "cid", "cellid");
+      int latIndex = column(header, "lat", "latitude");
+      int lonIndex = column(header, "lon", "longitude");
+      
+      while ((line = reader.readLine()) != null) {
+        String[] values = line.split(",");
+        if (values.length < header.length) {
+          skipped += 1;
+          continue;
+        }
+        long key;
+        float latitude;
+        float longitude;
+        try {
+          key = key(Integer.parseInt(values[mccIndex]),
+              Integer.parseInt(values[mncIndex]),
+              Long.parseLong(values[lacIndex]),
+              Long.parseLong(values[cidIndex]));
+          latitude = Float.parseFloat(values[latIndex]);
+          longitude = Float.parseFloat(values[lonIndex]);
+        } catch (NumberFormatException error) {
+          skipped += 1;
+          continue;
+        }
+        if (key == 0) {
+          skipped += 1;
+          continue;
+        }
+        if (count == keys.length) {
+          keys = Arrays.copyOf(keys, count * 2);
+          coordinates = Arrays.copyOf(coordinates, count * 4);
+        }
+        keys[count] = key;
+        coordinates[count * 2] = latitude;
+        coordinates[count * 2 + 1] = longitude;
+        count += 1;
+      }
+    }
+    
+    // load factor between 0.375 and 0.75
+    int capacity = Integer.highestOneBit(Math.max(count * 3 / 2, 1)) << 1;
+    if (capacity > MAX_CAPACITY) {
+      throw new IOException("Too many cells in " + source);
+    }
+    
+    // filled on the heap, a mapped file could not be moved on Windows
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + capacity * SLOT_SIZE);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, capacity);
+    
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      int slot = hash(keys[i]) & (capacity - 1);
+      while (true) {
+        long value = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+        if (value == 0) {
+          size += 1;
+          break;
+        } else if (value == keys[i]) {
+          // later rows of the same cell win
+          break;
+        }
+        slot = (slot + 1) & (capacity - 1);
+      }
+      int offset = HEADER_SIZE + slot * SLOT_SIZE;
+      buffer.putLong(offset, keys[i]);
+      buffer.putFloat(offset + 8, coordinates[i * 2]);
+      buffer.putFloat(offset + 12, coordinates[i * 2 + 1]);
+    }
+    buffer.putInt(12, size);
+    
+    File temporary = new File(file.getPath() + ".tmp");
+    try (RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+        FileChannel channel = output.getChannel()) {
+      channel.truncate(0);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    Files.move(temporary.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    
+    Log.info("Imported {} cells from {}, skipped {}", count, source, skipped);
+  }
+  
+}
@@ -0,0 +1,61 @@
+package org.traccar.location;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.metrics.Counter;
+
+/**
+ * Resolves cells from the local database in location.databaseFile.
+ *
+ * The database is imported from location.file on start when it is missing or
+ * older than the export. Unknown cells are passed to the fallback provider,
+ * if any.
+ */
+public class LocalLocationProvider extends BaseLocationProvider {
+  
+  private final CellDatabase database;
+  private final BaseLocationProvider fallback;
+  
+  private final Counter hits = Context.getMetricsRegistry().counter(
+      "location.local.hits");
+  private final Counter misses = Context.getMetricsRegistry().counter(
+      "location.local.misses");
+  
+  public LocalLocationProvider(Config config, BaseLocationProvider fallback)
+      throws IOException {
+    File file = new File(config.getString("location.databaseFile"));
+    if (config.hasKey("location.file")) {
+      File source = new File(config.getString("location.file"));
+      if (!file.exists() || file.lastModified() < source.lastModified()) {
+        CellDatabase.build(source, file);
+      }
+    }
+    database = CellDatabase.open(file);
+    Log.info("Cell database opened - {} cells", database.size());
+    
+    this.fallback = fallback;
+  }
+  
+  @Override
+  protected void getLocation(int mcc, int mnc, long lac, long cid,
+      LocationProviderCallback callback) {
+    int slot = database.find(CellDatabase.key(mcc, mnc, lac, cid));
+    if (slot >= 0) {
+      hits.inc();
+      callback.onSuccess(database.getLatitude(slot),
+          database.getLongitude(slot));
+    } else {
+      misses.inc();
+      if (fallback != null) {
+        fallback.getLocation(mcc, mnc, lac, cid, callback);
+      } else {
+        notFound(callback);
+      }
+    }
+  }
+  
+}
@@ -27,6 +27,16 @@ public interface LocationProvider {
     
   }
   
+  /**
+   * Callback that tells cells unknown to the provider apart from failed
+   * lookups, for example to cache only the former.
+   */
+  interface CellLookupCallback extends LocationProviderCallback {
+    
+    void onNotFound();
+    
+  }
+  
   void getLocation(Map<String, Object> attributes,
       LocationProviderCallback callback);
   
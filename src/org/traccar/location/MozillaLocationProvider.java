@@ -16,6 +16,7 @@
 package org.traccar.location;
 
 import javax.json.Json;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
@@ -49,15 +50,25 @@ public class MozillaLocationProvider extends BaseLocationProvider {
         .execute(new AsyncCompletionHandler() {
           @Override
           public Object onCompleted(Response response) throws Exception {
+            // only a parsed answer proves that the cell is unknown
+            int status = response.getStatusCode();
+            if (status != 200 && status != 404) {
+              callback.onFailure();
+              return null;
+            }
             try (JsonReader reader = Json.createReader(response
                 .getResponseBodyAsStream())) {
               JsonObject json = reader.readObject().getJsonObject("location");
-              if (json.containsKey("lat") && json.containsKey("lon")) {
+              if (json != null && json.containsKey("lat")
+                  && json.containsKey("lon")) {
                 callback.onSuccess(json.getJsonNumber("lat").doubleValue(),
                     json.getJsonNumber("lon").doubleValue());
               } else {
-                callback.onFailure();
+                notFound(callback);
               }
+            } catch (JsonException | ClassCastException error) {
+              // callers waiting on the same cell must always be answered
+              callback.onFailure();
             }
             return null;
           }
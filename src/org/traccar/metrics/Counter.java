@@ -0,0 +1,29 @@
+package org.traccar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic or up/down counter (messages, bytes, pending requests)
+ */
+public class Counter implements CounterMBean {
+  
+  private final AtomicLong count = new AtomicLong();
+  
+  public void inc() {
+    count.incrementAndGet();
+  }
+  
+  public void inc(long value) {
+    count.addAndGet(value);
+  }
+  
+  public void dec() {
+    count.decrementAndGet();
+  }
+  
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+  
+}
@@ -0,0 +1,11 @@
+package org.traccar.metrics;
+
+/**
+ * Value sampled on read (active channels, pool state)
+ */
+public abstract class Gauge implements GaugeMBean {
+  
+  @Override
+  public abstract long getValue();
+  
+}
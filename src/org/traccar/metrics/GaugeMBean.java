@@ -0,0 +1,7 @@
+package org.traccar.metrics;
+
+public interface GaugeMBean {
+  
+  long getValue();
+  
+}
@@ -0,0 +1,115 @@
+package org.traccar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets (eight per power of two, about 12%
+ * resolution). Values are recorded in microseconds and reported in
+ * milliseconds.
+ */
+public class Histogram implements HistogramMBean {
+  
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  
+  private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+  
+  private static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return exponent * SUB_BUCKETS + sub;
+  }
+  
+  private static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS;
+    int sub = index % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1L) << (exponent - SUB_BITS)) - 1;
+  }
+  
+  public void update(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    buckets.incrementAndGet(index(micros));
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+    long current;
+    while ((current = max.get()) < micros) {
+      if (max.compareAndSet(current, micros)) {
+        break;
+      }
+    }
+  }
+  
+  /**
+   * Record time elapsed since start, taken from System.nanoTime()
+   */
+  public void time(long start) {
+    update((System.nanoTime() - start) / 1000);
+  }
+  
+  private long percentile(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= threshold) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+  
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+  
+  @Override
+  public double getMean() {
+    long total = count.get();
+    return total > 0 ? sum.get() / 1000.0 / total : 0;
+  }
+  
+  @Override
+  public double get50thPercentile() {
+    return percentile(50) / 1000.0;
+  }
+  
+  @Override
+  public double get95thPercentile() {
+    return percentile(95) / 1000.0;
+  }
+  
+  @Override
+  public double get99thPercentile() {
+    return percentile(99) / 1000.0;
+  }
+  
+  @Override
+  public double getMax() {
+    return max.get() / 1000.0;
+  }
+  
+  public String summary() {
+    return String.format(
+        "count %d mean %.2f ms p50 %.2f ms p95 %.2f ms p99 %.2f ms max %.2f ms",
+        getCount(), getMean(), get50thPercentile(), get95thPercentile(),
+        get99thPercentile(), getMax());
+  }
+  
+}
@@ -0,0 +1,17 @@
+package org.traccar.metrics;
+
+public interface HistogramMBean {
+  
+  long getCount();
+  
+  double getMean();
+  
+  double get50thPercentile();
+  
+  double get95thPercentile();
+  
+  double get99thPercentile();
+  
+  double getMax();
+  
+}
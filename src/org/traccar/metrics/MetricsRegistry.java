@@ -0,0 +1,116 @@
+package org.traccar.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.traccar.helper.Log;
+
+/**
+ * Named counters, gauges and histograms, optionally published as MBeans in the
+ * org.traccar domain
+ */
+public class MetricsRegistry {
+  
+  public static final String DOMAIN = "org.traccar";
+  
+  private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+  
+  private MBeanServer mbeanServer;
+  
+  public synchronized void enableJmx() {
+    if (mbeanServer == null) {
+      mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+        registerMBean(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+  
+  private synchronized void registerMBean(String name, Object metric) {
+    if (mbeanServer == null) {
+      return;
+    }
+    try {
+      if (metric instanceof Counter) {
+        mbeanServer.registerMBean(new StandardMBean((Counter) metric,
+            CounterMBean.class), new ObjectName(DOMAIN + ":type=Counter,name="
+            + name));
+      } else if (metric instanceof Histogram) {
+        mbeanServer.registerMBean(new StandardMBean((Histogram) metric,
+            HistogramMBean.class), new ObjectName(DOMAIN
+            + ":type=Histogram,name=" + name));
+      } else if (metric instanceof Gauge) {
+        mbeanServer.registerMBean(new StandardMBean((Gauge) metric,
+            GaugeMBean.class), new ObjectName(DOMAIN + ":type=Gauge,name="
+            + name));
+      }
+    } catch (JMException error) {
+      Log.warning(error);
+    }
+  }
+  
+  private Object register(String name, Object metric) {
+    Object existing = metrics.putIfAbsent(name, metric);
+    if (existing != null) {
+      return existing;
+    }
+    registerMBean(name, metric);
+    return metric;
+  }
+  
+  public Counter counter(String name) {
+    Object metric = metrics.get(name);
+    if (metric == null) {
+      metric = register(name, new Counter());
+    }
+    return (Counter) metric;
+  }
+  
+  public Histogram histogram(String name) {
+    Object metric = metrics.get(name);
+    if (metric == null) {
+      metric = register(name, new Histogram());
+    }
+    return (Histogram) metric;
+  }
+  
+  /**
+   * Register gauge, first registration for a name wins
+   */
+  public Gauge gauge(String name, Gauge gauge) {
+    return (Gauge) register(name, gauge);
+  }
+  
+  public JsonObjectBuilder toJson() {
+    JsonObjectBuilder json = Json.createObjectBuilder();
+    for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+      Object metric = entry.getValue();
+      if (metric instanceof Counter) {
+        json.add(entry.getKey(), ((Counter) metric).getCount());
+      } else if (metric instanceof Gauge) {
+        json.add(entry.getKey(), ((Gauge) metric).getValue());
+      } else if (metric instanceof Histogram) {
+        Histogram histogram = (Histogram) metric;
+        json.add(
+            entry.getKey(),
+            Json.createObjectBuilder().add("count", histogram.getCount())
+                .add("mean", histogram.getMean())
+                .add("p50", histogram.get50thPercentile())
+                .add("p95", histogram.get95thPercentile())
+                .add("p99", histogram.get99thPercentile())
+                .add("max", histogram.getMax()));
+      }
+    }
+    return json;
+  }
+  
+}
@@ -125,7 +125,7 @@ public final class MiscFormatter {
   }
   
   public static String toJsonString(Map<String, Object> attributes) {
-    return toJson(attributes).toString();
+    return JsonConverter.toJsonString(attributes);
   }
   
 }
@@ -19,8 +19,6 @@ public class G15cProtocol extends BaseProtocol {
     serverList.add(new TrackerServer(new ServerBootstrap(), this.getName()) {
       @Override
       protected void addSpecificHandlers(ChannelPipeline pipeline) {
-        pipeline.addLast("objectForwarder", new G15cProtocolForwarder(
-            G15cProtocol.this));
         pipeline.addLast("frameDecoder", new G15cFrameDecoder());
         pipeline.addLast("objectEncoder", new G15cProtocolEncoder());
         pipeline.addLast("objectDecoder", new G15cProtocolDecoder(
@@ -23,6 +23,8 @@ import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.traccar.BaseProtocol;
 import org.traccar.TrackerServer;
+import org.traccar.forward.CommandReader;
+import org.traccar.forward.ProtocolForwarder;
 import org.traccar.helper.Checksum;
 import org.traccar.model.Command;
 
@@ -31,6 +33,17 @@ public class Gt06Protocol extends BaseProtocol {
   public Gt06Protocol() {
     super("gt06");
     setSupportedCommands(Command.TYPE_ENGINE_STOP, Command.TYPE_ENGINE_RESUME);
+    ProtocolForwarder.registerCommandReader(getName(), new CommandReader() {
+      @Override
+      public String readCommandText(ChannelBuffer buffer) {
+        return Gt06Protocol.readCommandText(buffer);
+      }
+      
+      @Override
+      public int readAcknowledgements(ChannelBuffer buffer) {
+        return Gt06Protocol.readAcknowledgements(buffer);
+      }
+    });
   }
   
   @Override
@@ -39,8 +52,6 @@ public class Gt06Protocol extends BaseProtocol {
     serverList.add(new TrackerServer(new ServerBootstrap(), this.getName()) {
       @Override
       protected void addSpecificHandlers(ChannelPipeline pipeline) {
-        pipeline.addLast("objectForwarder", new Gt06ProtocolForwarder(
-            Gt06Protocol.this));
         pipeline.addLast("frameDecoder", new Gt06FrameDecoder());
         pipeline.addLast("objectEncoder", new Gt06ProtocolEncoder());
         pipeline.addLast("objectDecoder", new Gt06ProtocolDecoder(
@@ -113,6 +124,23 @@ public class Gt06Protocol extends BaseProtocol {
     return response;
   }
   
+  /**
+   * Counts server responses, every frame except commands is answered with
+   * one of them
+   */
+  public static int readAcknowledgements(ChannelBuffer buf) {
+    int count = 0;
+    int index = buf.readerIndex();
+    while (buf.writerIndex() - index >= 5
+        && buf.getUnsignedShort(index) == 0x7878) {
+      if (!isCommand(buf.getUnsignedByte(index + 3))) {
+        count += 1;
+      }
+      index += buf.getUnsignedByte(index + 2) + 5;
+    }
+    return count;
+  }
+  
   public static String readCommandText(ChannelBuffer channelBuffer) {
     String commandText = null;
     try {
@@ -33,6 +33,7 @@ public class Gt06ProtocolDecoder extends BaseProtocolDecoder {
   
   private boolean forceTimeZone = false;
   private final TimeZone timeZone = TimeZone.getTimeZone("UTC");
+  private DateBuilder dateBuilder;
   
   public Gt06ProtocolDecoder(Gt06Protocol protocol) {
     super(protocol);
@@ -42,12 +43,14 @@ public class Gt06ProtocolDecoder extends BaseProtocolDecoder {
       timeZone.setRawOffset(Context.getConfig().getInteger(
           getProtocolName() + ".timezone") * 1000);
     }
+    dateBuilder = new DateBuilder(timeZone);
   }
   
   private void decodeGps(Position position, ChannelBuffer buf) {
     
-    DateBuilder dateBuilder = new DateBuilder(timeZone).setDate(
-        buf.readUnsignedByte(), buf.readUnsignedByte(), buf.readUnsignedByte())
+    dateBuilder.reset()
+        .setDate(buf.readUnsignedByte(), buf.readUnsignedByte(),
+            buf.readUnsignedByte())
         .setTime(buf.readUnsignedByte(), buf.readUnsignedByte(),
             buf.readUnsignedByte());
     position.setTime(dateBuilder.getDate());
@@ -141,6 +144,7 @@ public class Gt06ProtocolDecoder extends BaseProtocolDecoder {
           }
           if (!forceTimeZone) {
             timeZone.setRawOffset(offset * 1000);
+            dateBuilder = new DateBuilder(timeZone);
           }
         }
         
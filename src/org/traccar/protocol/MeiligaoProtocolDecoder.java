@@ -33,6 +33,8 @@ import org.traccar.model.Position;
 
 public class MeiligaoProtocolDecoder extends BaseProtocolDecoder {
   
+  private final DateBuilder dateBuilder = new DateBuilder();
+  
   public MeiligaoProtocolDecoder(MeiligaoProtocol protocol) {
     super(protocol);
   }
@@ -193,12 +195,10 @@ public class MeiligaoProtocolDecoder extends BaseProtocolDecoder {
       return null;
     }
     
-    Position position = new Position();
-    position.setProtocol(getProtocolName());
-    
     // Custom data
+    int alarm = -1;
     if (command == MSG_ALARM) {
-      position.set(Position.KEY_ALARM, buf.readUnsignedByte());
+      alarm = buf.readUnsignedByte();
     } else if (command == MSG_POSITION_LOGGED) {
       buf.skipBytes(6);
     }
@@ -206,8 +206,15 @@ public class MeiligaoProtocolDecoder extends BaseProtocolDecoder {
     if (!identify(id, channel, remoteAddress)) {
       return null;
     }
+    
+    Position position = new Position();
+    position.setProtocol(getProtocolName());
     position.setDeviceId(getDeviceId());
     
+    if (alarm >= 0) {
+      position.set(Position.KEY_ALARM, alarm);
+    }
+    
     if (command == MSG_RFID) {
       for (int i = 0; i < 15; i++) {
         long rfid = buf.readUnsignedInt();
@@ -234,9 +241,9 @@ public class MeiligaoProtocolDecoder extends BaseProtocolDecoder {
     
     if (command == MSG_RFID) {
       
-      DateBuilder dateBuilder = new DateBuilder().setTime(parser.nextInt(),
-          parser.nextInt(), parser.nextInt()).setDateReverse(parser.nextInt(),
-          parser.nextInt(), parser.nextInt());
+      dateBuilder.reset()
+          .setTime(parser.nextInt(), parser.nextInt(), parser.nextInt())
+          .setDateReverse(parser.nextInt(), parser.nextInt(), parser.nextInt());
       position.setTime(dateBuilder.getDate());
       
       position.setValid(true);
@@ -245,8 +252,8 @@ public class MeiligaoProtocolDecoder extends BaseProtocolDecoder {
       
     } else {
       
-      DateBuilder dateBuilder = new DateBuilder().setTime(parser.nextInt(),
-          parser.nextInt(), parser.nextInt());
+      dateBuilder.reset()
+          .setTime(parser.nextInt(), parser.nextInt(), parser.nextInt());
       if (parser.hasNext()) {
         dateBuilder.setMillis(parser.nextInt());
       }
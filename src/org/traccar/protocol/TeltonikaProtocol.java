@@ -24,11 +24,24 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.traccar.BaseProtocol;
 import org.traccar.TrackerServer;
+import org.traccar.forward.CommandReader;
+import org.traccar.forward.ProtocolForwarder;
 
 public class TeltonikaProtocol extends BaseProtocol {
   
   public TeltonikaProtocol() {
     super("teltonika");
+    ProtocolForwarder.registerCommandReader(getName(), new CommandReader() {
+      @Override
+      public String readCommandText(ChannelBuffer buffer) {
+        return TeltonikaProtocol.readCommandText(buffer);
+      }
+      
+      @Override
+      public int readAcknowledgements(ChannelBuffer buffer) {
+        return TeltonikaProtocol.readAcknowledgements(buffer);
+      }
+    });
   }
   
   @Override
@@ -37,8 +50,6 @@ public class TeltonikaProtocol extends BaseProtocol {
     serverList.add(new TrackerServer(new ServerBootstrap(), this.getName()) {
       @Override
       protected void addSpecificHandlers(ChannelPipeline pipeline) {
-        pipeline.addLast("objectForwarder", new TeltonikaProtocolForwarder(
-            TeltonikaProtocol.this, false));
         pipeline.addLast("frameDecoder", new TeltonikaFrameDecoder());
         pipeline.addLast("objectDecoder", new TeltonikaProtocolDecoder(
             TeltonikaProtocol.this));
@@ -49,8 +60,6 @@ public class TeltonikaProtocol extends BaseProtocol {
         .getName()) {
       @Override
       protected void addSpecificHandlers(ChannelPipeline pipeline) {
-        pipeline.addLast("objectForwarder", new TeltonikaProtocolForwarder(
-            TeltonikaProtocol.this, true));
         pipeline.addLast("objectDecoder", new TeltonikaProtocolDecoder(
             TeltonikaProtocol.this));
       }
@@ -58,6 +67,29 @@ public class TeltonikaProtocol extends BaseProtocol {
     
   }
   
+  /**
+   * Counts TCP server responses: one byte for the IMEI login and the number
+   * of accepted records as an int for every data packet. Command packets
+   * start with a zero preamble and are skipped.
+   */
+  public static int readAcknowledgements(ChannelBuffer buf) {
+    int count = 0;
+    int index = buf.readerIndex();
+    if ((buf.writerIndex() - index) % 4 == 1) {
+      count += 1;
+      index += 1;
+    }
+    while (buf.writerIndex() - index >= 4) {
+      if (buf.getInt(index) == 0 && buf.writerIndex() - index >= 8) {
+        index += 8 + buf.getInt(index + 4) + 4; // preamble, length, crc
+      } else {
+        count += 1;
+        index += 4;
+      }
+    }
+    return count;
+  }
+  
   public static String readCommandText(ChannelBuffer channelBuffer) {
     String commandText = null;
     try {
@@ -17,8 +17,8 @@ package org.traccar.protocol;
 
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -195,13 +195,13 @@ public class TeltonikaProtocolDecoder extends BaseProtocolDecoder {
   }
   
   private List<Position> parseData(Channel channel, ChannelBuffer buf) {
-    List<Position> positions = new LinkedList<>();
-    
     buf.skipBytes(4); // marker
     buf.readUnsignedInt(); // data length
     int codec = buf.readUnsignedByte();
     int count = buf.readUnsignedByte();
     
+    List<Position> positions = new ArrayList<>(count);
+    
     for (int i = 0; i < count; i++) {
       Position position = new Position();
       position.setProtocol(getProtocolName());
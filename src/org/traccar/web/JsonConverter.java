@@ -20,10 +20,13 @@ import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -38,6 +41,7 @@ import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.traccar.helper.Log;
 import org.traccar.model.MiscFormatter;
+import org.traccar.model.Position;
 
 public final class JsonConverter {
   
@@ -108,55 +112,345 @@ public final class JsonConverter {
     return object;
   }
   
+  private static final int TYPE_BOOLEAN = 0;
+  private static final int TYPE_INT = 1;
+  private static final int TYPE_LONG = 2;
+  private static final int TYPE_DOUBLE = 3;
+  private static final int TYPE_STRING = 4;
+  private static final int TYPE_DATE = 5;
+  private static final int TYPE_MAP = 6;
+  private static final int TYPE_LIST = 7;
+  
+  /**
+   * Getter of a serialised property, resolved once per class
+   */
+  private static final class Property {
+    
+    private final String name;
+    private final String key;
+    private final Method method;
+    private final int type;
+    
+    private Property(String name, Method method, int type) {
+      this.name = name;
+      StringBuilder s = new StringBuilder();
+      writeString(s, name);
+      this.key = s.append(':').toString();
+      this.method = method;
+      this.type = type;
+    }
+    
+  }
+  
+  /**
+   * Streaming writer for objects of one class
+   */
+  public interface ObjectWriter<T> {
+    void write(StringBuilder s, T object);
+  }
+  
+  private static final ConcurrentMap<Class<?>, Property[]> PROPERTIES =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentMap<Class<?>, ObjectWriter<?>> WRITERS =
+      new ConcurrentHashMap<>();
+  
+  private static final ThreadLocal<StringBuilder> BUFFER =
+      new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+          return new StringBuilder(1024);
+        }
+      };
+  
+  private static final int BUFFER_LIMIT = 64 * 1024;
+  
+  static {
+    registerWriter(Position.class, new ObjectWriter<Position>() {
+      @Override
+      public void write(StringBuilder s, Position position) {
+        s.append("{\"id\":").append(position.getId());
+        s.append(",\"deviceId\":").append(position.getDeviceId());
+        if (position.getType() != null) {
+          s.append(",\"type\":");
+          writeString(s, position.getType());
+        }
+        if (position.getProtocol() != null) {
+          s.append(",\"protocol\":");
+          writeString(s, position.getProtocol());
+        }
+        if (position.getServerTime() != null) {
+          s.append(",\"serverTime\":");
+          writeDate(s, position.getServerTime());
+        }
+        if (position.getDeviceTime() != null) {
+          s.append(",\"deviceTime\":");
+          writeDate(s, position.getDeviceTime());
+        }
+        if (position.getFixTime() != null) {
+          s.append(",\"fixTime\":");
+          writeDate(s, position.getFixTime());
+        }
+        s.append(",\"outdated\":").append(position.getOutdated());
+        s.append(",\"valid\":").append(position.getValid());
+        s.append(",\"latitude\":");
+        writeDouble(s, position.getLatitude());
+        s.append(",\"longitude\":");
+        writeDouble(s, position.getLongitude());
+        s.append(",\"altitude\":");
+        writeDouble(s, position.getAltitude());
+        s.append(",\"speed\":");
+        writeDouble(s, position.getSpeed());
+        s.append(",\"course\":");
+        writeDouble(s, position.getCourse());
+        if (position.getAddress() != null) {
+          s.append(",\"address\":");
+          writeString(s, position.getAddress());
+        }
+        if (position.getAttributes() != null) {
+          s.append(",\"attributes\":");
+          writeMap(s, position.getAttributes());
+        }
+        s.append('}');
+      }
+    });
+  }
+  
+  /**
+   * Replace reflective serialisation of exactly this class
+   */
+  public static <T> void registerWriter(Class<T> clazz,
+      ObjectWriter<T> writer) {
+    WRITERS.put(clazz, writer);
+  }
+  
+  private static Property[] getProperties(Class<?> clazz) {
+    Property[] properties = PROPERTIES.get(clazz);
+    if (properties == null) {
+      List<Property> list = new ArrayList<>();
+      for (Method method : clazz.getMethods()) {
+        if (method.getName().startsWith("get")
+            && method.getParameterTypes().length == 0) {
+          String name = Introspector.decapitalize(method.getName()
+              .substring(3));
+          Class<?> type = method.getReturnType();
+          if (type.equals(boolean.class)) {
+            list.add(new Property(name, method, TYPE_BOOLEAN));
+          } else if (type.equals(int.class)) {
+            list.add(new Property(name, method, TYPE_INT));
+          } else if (type.equals(long.class)) {
+            list.add(new Property(name, method, TYPE_LONG));
+          } else if (type.equals(double.class)) {
+            list.add(new Property(name, method, TYPE_DOUBLE));
+          } else if (type.equals(String.class)) {
+            list.add(new Property(name, method, TYPE_STRING));
+          } else if (type.equals(Date.class)) {
+            list.add(new Property(name, method, TYPE_DATE));
+          } else if (type.equals(Map.class)) {
+            list.add(new Property(name, method, TYPE_MAP));
+          } else if (type.equals(List.class)) {
+            list.add(new Property(name, method, TYPE_LIST));
+          }
+        }
+      }
+      properties = list.toArray(new Property[list.size()]);
+      PROPERTIES.put(clazz, properties);
+    }
+    return properties;
+  }
+  
+  @SuppressWarnings("unchecked")
   public static <T> JsonObject objectToJson(T object) {
     
     JsonObjectBuilder json = Json.createObjectBuilder();
     
-    Method[] methods = object.getClass().getMethods();
-    
-    for (Method method : methods) {
-      if (method.getName().startsWith("get")
-          && method.getParameterTypes().length == 0) {
-        String name = Introspector.decapitalize(method.getName().substring(3));
-        try {
-          if (method.getReturnType().equals(boolean.class)) {
-            json.add(name, (Boolean) method.invoke(object));
-          } else if (method.getReturnType().equals(int.class)) {
-            json.add(name, (Integer) method.invoke(object));
-          } else if (method.getReturnType().equals(long.class)) {
-            json.add(name, (Long) method.invoke(object));
-          } else if (method.getReturnType().equals(double.class)) {
-            json.add(name, (Double) method.invoke(object));
-          } else if (method.getReturnType().equals(String.class)) {
-            String value = (String) method.invoke(object);
-            if (value != null) {
-              json.add(name, value);
-            }
-          } else if (method.getReturnType().equals(Date.class)) {
-            Date value = (Date) method.invoke(object);
-            if (value != null) {
-              json.add(name, DATE_FORMAT.print(new DateTime(value)));
-            }
-          } else if (method.getReturnType().equals(Map.class)) {
-            Map value = (Map) method.invoke(object);
-            if (value != null) {
-              json.add(name, MiscFormatter.toJson(value));
-            }
-          } else if (method.getReturnType().equals(List.class)) {
-            List value = (List) method.invoke(object);
-            if (value != null) {
-              json.add(name, arrayToJson(value));
-            }
+    for (Property property : getProperties(object.getClass())) {
+      try {
+        Object value = property.method.invoke(object);
+        switch (property.type) {
+        case TYPE_BOOLEAN:
+          json.add(property.name, (Boolean) value);
+          break;
+        case TYPE_INT:
+          json.add(property.name, (Integer) value);
+          break;
+        case TYPE_LONG:
+          json.add(property.name, (Long) value);
+          break;
+        case TYPE_DOUBLE:
+          json.add(property.name, (Double) value);
+          break;
+        case TYPE_STRING:
+          if (value != null) {
+            json.add(property.name, (String) value);
+          }
+          break;
+        case TYPE_DATE:
+          if (value != null) {
+            json.add(property.name, DATE_FORMAT.print(new DateTime(value)));
+          }
+          break;
+        case TYPE_MAP:
+          if (value != null) {
+            json.add(property.name, MiscFormatter.toJson((Map) value));
           }
-        } catch (IllegalAccessException | InvocationTargetException error) {
-          Log.warning(error);
+          break;
+        default:
+          if (value != null) {
+            json.add(property.name, arrayToJson((List) value));
+          }
+          break;
         }
+      } catch (IllegalAccessException | InvocationTargetException error) {
+        Log.warning(error);
       }
     }
     
     return json.build();
   }
   
+  public static void writeString(StringBuilder s, String value) {
+    s.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        s.append("\\\"");
+        break;
+      case '\\':
+        s.append("\\\\");
+        break;
+      case '\n':
+        s.append("\\n");
+        break;
+      case '\r':
+        s.append("\\r");
+        break;
+      case '\t':
+        s.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          s.append("\\u00");
+          s.append(Character.forDigit(c >> 4, 16));
+          s.append(Character.forDigit(c & 0xf, 16));
+        } else {
+          s.append(c);
+        }
+        break;
+      }
+    }
+    s.append('"');
+  }
+  
+  private static void writeDouble(StringBuilder s, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      s.append("null");
+    } else {
+      s.append(value);
+    }
+  }
+  
+  private static void writeDate(StringBuilder s, Date value) {
+    s.append('"').append(DATE_FORMAT.print(value.getTime())).append('"');
+  }
+  
+  public static void writeMap(StringBuilder s, Map<?, ?> map) {
+    s.append('{');
+    boolean first = true;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (!first) {
+        s.append(',');
+      }
+      writeString(s, String.valueOf(entry.getKey()));
+      s.append(':');
+      writeValue(s, entry.getValue());
+      first = false;
+    }
+    s.append('}');
+  }
+  
+  public static void writeArray(StringBuilder s, Collection<?> array) {
+    s.append('[');
+    boolean first = true;
+    for (Object value : array) {
+      if (!first) {
+        s.append(',');
+      }
+      writeValue(s, value);
+      first = false;
+    }
+    s.append(']');
+  }
+  
+  public static void writeValue(StringBuilder s, Object value) {
+    if (value == null) {
+      s.append("null");
+    } else if (value instanceof String) {
+      writeString(s, (String) value);
+    } else if (value instanceof Boolean || value instanceof Integer
+        || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      s.append(value);
+    } else if (value instanceof Double || value instanceof Float) {
+      writeDouble(s, ((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      s.append(value);
+    } else if (value instanceof Date) {
+      writeDate(s, (Date) value);
+    } else if (value instanceof Map) {
+      writeMap(s, (Map<?, ?>) value);
+    } else if (value instanceof Collection) {
+      writeArray(s, (Collection<?>) value);
+    } else {
+      writeObject(s, value);
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  public static void writeObject(StringBuilder s, Object object) {
+    
+    ObjectWriter<Object> writer =
+        (ObjectWriter<Object>) WRITERS.get(object.getClass());
+    if (writer != null) {
+      writer.write(s, object);
+      return;
+    }
+    
+    s.append('{');
+    boolean first = true;
+    for (Property property : getProperties(object.getClass())) {
+      try {
+        Object value = property.method.invoke(object);
+        if (value == null) {
+          continue;
+        }
+        if (!first) {
+          s.append(',');
+        }
+        s.append(property.key);
+        writeValue(s, value);
+        first = false;
+      } catch (IllegalAccessException | InvocationTargetException error) {
+        Log.warning(error);
+      }
+    }
+    s.append('}');
+  }
+  
+  /**
+   * Serialise value through a reusable per-thread buffer
+   */
+  public static String toJsonString(Object value) {
+    StringBuilder s = BUFFER.get();
+    s.setLength(0);
+    writeValue(s, value);
+    String result = s.toString();
+    if (s.capacity() > BUFFER_LIMIT) {
+      BUFFER.remove();
+    }
+    return result;
+  }
+  
   public static JsonArray arrayToJson(Collection<?> array) {
     
     JsonArrayBuilder json = Json.createArrayBuilder();
@@ -0,0 +1,70 @@
+package org.traccar.web;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import javax.json.Json;
+import javax.json.JsonWriter;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.traccar.Context;
+import org.traccar.api.SecurityRequestFilter;
+import org.traccar.api.resource.SessionResource;
+import org.traccar.model.User;
+
+/**
+ * Current values of all registered metrics as a single JSON object, for
+ * administrators authenticated like the API, by session or basic auth
+ */
+public class MetricsServlet extends HttpServlet {
+  
+  private static Long getUserId(HttpServletRequest request) {
+    String authHeader = request.getHeader(
+        SecurityRequestFilter.AUTHORIZATION_HEADER);
+    if (authHeader != null) {
+      String[] auth = SecurityRequestFilter.decodeBasicAuth(authHeader);
+      if (auth != null && auth.length == 2) {
+        try {
+          User user = Context.getDataManager().login(auth[0], auth[1]);
+          if (user != null) {
+            return user.getId();
+          }
+        } catch (SQLException error) {
+          return null;
+        }
+      }
+      return null;
+    }
+    HttpSession session = request.getSession(false);
+    if (session != null) {
+      return (Long) session.getAttribute(SessionResource.USER_ID_KEY);
+    }
+    return null;
+  }
+  
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    Long userId = getUserId(request);
+    if (userId == null) {
+      response.setHeader(SecurityRequestFilter.WWW_AUTHENTICATE,
+          SecurityRequestFilter.BASIC_REALM);
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+    if (!Context.getPermissionsManager().isAdmin(userId)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+      writer.writeObject(Context.getMetricsRegistry().toJson().build());
+    }
+  }
+  
+}
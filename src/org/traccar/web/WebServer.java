@@ -94,6 +94,9 @@ public class WebServer {
     if (config.getBoolean("web.console")) {
       initConsole();
     }
+    if (config.getBoolean("web.metrics")) {
+      initMetrics();
+    }
     switch (config.getString("web.type", "new")) {
     case "old":
       initOldWebApp();
@@ -178,6 +181,15 @@ public class WebServer {
     handlers.addHandler(servletHandler);
   }
   
+  private void initMetrics() {
+    ServletContextHandler servletHandler = new ServletContextHandler(
+        ServletContextHandler.SESSIONS);
+    servletHandler.setContextPath("/metrics");
+    servletHandler.getSessionHandler().setSessionManager(sessionManager);
+    servletHandler.addServlet(new ServletHolder(new MetricsServlet()), "/*");
+    handlers.addHandler(servletHandler);
+  }
+  
   public void start() {
     try {
       server.start();